@@ -0,0 +1,55 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+
+/**
+ * Builds the catalogues and loans the benchmarks run against.
+ */
+final class BenchmarkData {
+    private BenchmarkData() {
+    }
+
+    static String title(int i) {
+        return "Title " + i;
+    }
+
+    /**
+     * Returns a valid ISBN-13, so lookups take the numeric path rather than the text fallback
+     */
+    static String isbn(int i) {
+        long body = 978000000000L + i;
+        int sum = 0;
+        long digits = body;
+        for (int position = 0; position < 12; position++) {
+            // Weights alternate 3, 1 from the rightmost digit of the body
+            sum += (int) (digits % 10) * (position % 2 == 0 ? 3 : 1);
+            digits /= 10;
+        }
+        return String.valueOf(body * 10 + (10 - sum % 10) % 10);
+    }
+
+    static Book book(int i, int copies) {
+        Person author = new Person("Author" + (i % 997), "Surname" + (i % 1009));
+        return new Book(title(i), author, isbn(i), 1900 + i % 120, Book.Genre.values()[i % Book.Genre.values().length], copies);
+    }
+
+    /**
+     * Creates a library holding the given number of titles, each with the given number of copies
+     */
+    static Library library(int titles, int copies) {
+        Library library = new Library("Benchmark Library", 10);
+        for (int i = 0; i < titles; i++) {
+            library.addItem(book(i, copies));
+        }
+        return library;
+    }
+
+    static String bibtex(int i) {
+        return "@book{Entry" + i + ",\n"
+                + "    title={" + title(i) + "},\n"
+                + "    author={Author" + i + " Surname" + i + "},\n"
+                + "    isbn={" + isbn(i) + "},\n"
+                + "    year={" + (1900 + i % 120) + "}\n"
+                + "}\n";
+    }
+}
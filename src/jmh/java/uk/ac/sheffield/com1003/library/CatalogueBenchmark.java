@@ -0,0 +1,107 @@
+package uk.ac.sheffield.com1003.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of the catalogue operations for catalogues of 10^2 to 10^6 titles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogueBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int catalogueSize;
+
+    private Library library;
+    private Person borrower;
+    private int nextTitle;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        library = BenchmarkData.library(catalogueSize, 1);
+        borrower = new Person("Jose", "Rojas");
+        nextTitle = catalogueSize;
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    /**
+     * Looks up a random title, loans it and returns it again
+     */
+    @Benchmark
+    public Loan loanAndReturnByTitle() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(catalogueSize);
+        Loan loan = library.loanItem(BenchmarkData.title(i), borrower);
+        library.returnItem(loan);
+        return loan;
+    }
+
+    /**
+     * Looks up a random ISBN, loans it and returns it again
+     */
+    @Benchmark
+    public Loan loanAndReturnByIsbn() throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(catalogueSize);
+        Loan loan = library.loanItem(BenchmarkData.isbn(i), borrower);
+        library.returnItem(loan);
+        return loan;
+    }
+
+    /**
+     * Adds a new title and removes it again, keeping the catalogue size constant
+     */
+    @Benchmark
+    public boolean addAndRemoveItem() throws Exception {
+        Book book = BenchmarkData.book(nextTitle++, 1);
+        boolean added = library.addItem(book);
+        library.removeItem(book.getIsbn());
+        return added;
+    }
+
+    @Benchmark
+    public CatalogueItem[] getCatalogue() {
+        return library.getCatalogue();
+    }
+
+    @Benchmark
+    @Measurement(iterations = 3, time = 2)
+    public void printCatalogue() {
+        library.printCatalogue();
+    }
+
+    @Benchmark
+    public void fromBibtex(Blackhole blackhole) throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(catalogueSize);
+        blackhole.consume(Book.fromBibtex(BenchmarkData.bibtex(i)));
+    }
+}
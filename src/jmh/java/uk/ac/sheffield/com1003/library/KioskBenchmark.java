@@ -0,0 +1,68 @@
+package uk.ac.sheffield.com1003.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.sheffield.com1003.library.exceptions.NoCopyAvailableException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many kiosks checking items out of and back into one shared library.
+ * A small number of titles makes the kiosks compete for the same items.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class KioskBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedLibrary {
+        @Param({"10", "10000", "1000000"})
+        public int catalogueSize;
+
+        Library library;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            library = BenchmarkData.library(catalogueSize, 4);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Kiosk {
+        Person patron;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            patron = new Person("Kiosk", "Patron" + Thread.currentThread().threadId());
+        }
+    }
+
+    @Benchmark
+    public Loan checkoutAndReturn(SharedLibrary shared, Kiosk kiosk) throws Exception {
+        int i = ThreadLocalRandom.current().nextInt(shared.catalogueSize);
+        Loan loan;
+        try {
+            loan = shared.library.loanItem(BenchmarkData.isbn(i), kiosk.patron);
+        } catch (NoCopyAvailableException e) {
+            return null;
+        }
+        shared.library.returnItem(loan);
+        return loan;
+    }
+}
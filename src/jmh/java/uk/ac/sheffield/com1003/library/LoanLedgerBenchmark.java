@@ -0,0 +1,93 @@
+package uk.ac.sheffield.com1003.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the loan queries for ledgers of different sizes. A tenth of the
+ * loans are returned and a tenth are overdue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoanLedgerBenchmark {
+    private static final int TITLES = 10_000;
+    private static final int BORROWERS = 1_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int ledgerSize;
+
+    private Library library;
+    private Person[] borrowers;
+    private LocalDateTime now;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        library = BenchmarkData.library(TITLES, ledgerSize / TITLES + 1);
+        borrowers = new Person[BORROWERS];
+        for (int i = 0; i < BORROWERS; i++) {
+            borrowers[i] = new Person("Borrower", "No" + i);
+        }
+        for (int i = 0; i < ledgerSize; i++) {
+            Loan loan = library.loanItem(BenchmarkData.title(i % TITLES), borrowers[i % BORROWERS]);
+            if (i % 10 == 0) {
+                library.returnItem(loan);
+            } else if (i % 10 == 1) {
+                library.extendLoan(loan, -20);
+            }
+        }
+        now = LocalDateTime.now();
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public List<Loan> loansByUser() {
+        return library.getLoanLedger().getLoans(borrowers[ThreadLocalRandom.current().nextInt(BORROWERS)]);
+    }
+
+    @Benchmark
+    public List<Loan> overdueLoans() {
+        return library.getLoanLedger().getOverdueLoans(now);
+    }
+
+    @Benchmark
+    public void printOverdue() {
+        library.printOverdue();
+    }
+
+    @Benchmark
+    public Loan loanAndReturn() throws Exception {
+        Person borrower = borrowers[ThreadLocalRandom.current().nextInt(BORROWERS)];
+        Loan loan = library.loanItem(BenchmarkData.title(ThreadLocalRandom.current().nextInt(TITLES)), borrower);
+        library.returnItem(loan);
+        return loan;
+    }
+}
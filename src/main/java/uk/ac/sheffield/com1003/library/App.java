@@ -5,9 +5,10 @@ import uk.ac.sheffield.com1003.library.exceptions.ItemNotFoundException;
 import uk.ac.sheffield.com1003.library.exceptions.NoCopyAvailableException;
 import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
 import uk.ac.sheffield.com1003.library.catalogue.Magazine;
-import java.util.Scanner;
-import java.io.File;
-import java.io.FileNotFoundException;
+import uk.ac.sheffield.com1003.library.bibtex.BibtexImporter;
+import uk.ac.sheffield.com1003.library.bibtex.ImportReport;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.ParseException;
 
 public class App {
@@ -18,10 +19,13 @@ public class App {
         Book book1 = new Book("Clean Code", authorBook1, "9780136083238",2008,Genre.UNSPECIFIED,1);
         myLibrary.addItem(book1);
 
-        /*String filePath = "src/main/resources/Lee60.bib";
-        String bibtex = readBibtexFromFile(filePath);
-        Book book2 = Book.fromBibtex(bibtex);
-        myLibrary.addItem(book2);*/
+        String filePath = "src/main/resources/Lee60.bib";
+        try {
+            ImportReport report = new BibtexImporter(myLibrary).importFile(Path.of(filePath));
+            System.out.println(report);
+        } catch (IOException e) {
+            System.err.println("Could not read " + filePath + ": " + e.getMessage());
+        }
 
         myLibrary.printCatalogue();
 
@@ -43,6 +47,7 @@ public class App {
         myLibrary.printOverdue();
 
         Magazine magazine1 = new Magazine("Sports Today", 2024, 1);
+        magazine1.addCopy();
         myLibrary.addItem(magazine1);
         Loan loan3 = myLibrary.loanItem(magazine1.getTitle(), borrower);
         if (loan3 != null) {
@@ -55,29 +60,4 @@ public class App {
 
     }
 
-    private static String readBibtexFromFile(String filePath) {
-        StringBuilder content = new StringBuilder();
-        try {
-            File file = new File(filePath);
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                content.append(scanner.nextLine()).append("/n");
-            }
-            scanner.close();
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + filePath);
-            e.printStackTrace();
-        }
-        return content.toString();
-    }
 }
-    
-
-        
-
-
-
-
-        
-    
-
@@ -0,0 +1,85 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes an {@link AvailabilitySnapshot} of a library at a fixed rate, so
+ * that browsing, which far outnumbers checkouts, reads a shared immutable
+ * copy instead of the live counters. Taking a snapshot only reads the
+ * atomic counters of each item, so the desk never waits for it, and
+ * readers see at most one period's worth of staleness.
+ */
+public class AvailabilityPublisher {
+    private final Library library;
+    private final Clock clock;
+    private volatile AvailabilitySnapshot snapshot;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor that takes the library to publish, using the system clock
+     * @param library The library
+     */
+    public AvailabilityPublisher(Library library) {
+        this(library, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor that takes the library to publish and the clock to date snapshots with
+     * @param library The library
+     * @param clock Clock giving the current date and time
+     */
+    public AvailabilityPublisher(Library library, Clock clock) {
+        this.library = library;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes and publishes a new snapshot
+     * @return The snapshot
+     */
+    public AvailabilitySnapshot publish() {
+        AvailabilitySnapshot taken = new AvailabilitySnapshot(library.getCatalogue(), LocalDateTime.now(clock));
+        snapshot = taken;
+        return taken;
+    }
+
+    /**
+     * Returns the latest snapshot, taking the first one if none has been published
+     * @return The latest snapshot
+     */
+    public AvailabilitySnapshot getSnapshot() {
+        AvailabilitySnapshot result = snapshot;
+        return result != null ? result : publish();
+    }
+
+    /**
+     * Starts publishing snapshots on a background thread at a fixed rate
+     * @param period Time between snapshots
+     * @param unit Unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Publisher already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "availability-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::publish, 0, period, unit);
+    }
+
+    /**
+     * Stops the background publishing started by {@link AvailabilityPublisher#start(long, TimeUnit)}
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of the availability of every item in a catalogue at one
+ * moment, published by an {@link AvailabilityPublisher}. Readers share the
+ * snapshot without any locking and never touch the counters the desk updates.
+ * Copies on the shelf and on loan are read item by item, so a loan made while
+ * the snapshot was being taken may be counted in one but not yet the other.
+ */
+public final class AvailabilitySnapshot {
+    private final LocalDateTime takenAt;
+    private final CatalogueItem[] items;
+    private final int[] onShelf;
+    private final int[] onLoan;
+    private final Map<CatalogueItem, Integer> positions;
+
+    AvailabilitySnapshot(CatalogueItem[] items, LocalDateTime takenAt) {
+        this.takenAt = takenAt;
+        this.items = items;
+        this.onShelf = new int[items.length];
+        this.onLoan = new int[items.length];
+        this.positions = new IdentityHashMap<>(items.length * 2);
+        for (int i = 0; i < items.length; i++) {
+            onShelf[i] = items[i].getCopies();
+            onLoan[i] = items[i].getCopiesOnLoan();
+            positions.put(items[i], i);
+        }
+    }
+
+    /**
+     * Returns when the snapshot was taken
+     * @return Date and time the snapshot was taken
+     */
+    public LocalDateTime getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Returns the items in the snapshot, in catalogue order
+     * @return Unmodifiable list of items
+     */
+    public List<CatalogueItem> getItems() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    /**
+     * Returns the number of copies of an item that were on the shelf
+     * @param item The item
+     * @return Copies on the shelf, or 0 if the item was not in the catalogue
+     */
+    public int getCopies(CatalogueItem item) {
+        Integer i = positions.get(item);
+        return i == null ? 0 : onShelf[i];
+    }
+
+    /**
+     * Returns the number of copies of an item that were on loan
+     * @param item The item
+     * @return Copies on loan, or 0 if the item was not in the catalogue
+     */
+    public int getCopiesOnLoan(CatalogueItem item) {
+        Integer i = positions.get(item);
+        return i == null ? 0 : onLoan[i];
+    }
+
+    /**
+     * Tells whether a copy of an item was on the shelf
+     * @param item The item
+     * @return true if a copy was available; false otherwise
+     */
+    public boolean isAvailable(CatalogueItem item) {
+        return getCopies(item) > 0;
+    }
+
+    /**
+     * Returns the number of items with at least one copy on the shelf
+     * @return Number of available items
+     */
+    public int availableCount() {
+        int count = 0;
+        for (int copies : onShelf) {
+            if (copies > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of items in the snapshot
+     * @return Number of items
+     */
+    public int size() {
+        return items.length;
+    }
+}
@@ -0,0 +1,78 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+/**
+ * A change to the catalogue or loans of a library, as published by an {@link EventStream}
+ */
+public class CirculationEvent {
+    /**
+     * The kind of change
+     */
+    public enum Type {ITEM_ADDED, COPIES_ADDED, COPY_REMOVED, LOANED, RETURNED, EXTENDED}
+
+    private final long sequence;
+    private final Type type;
+    private final long timestamp;
+    private final CatalogueItem item;
+    private final Loan loan;
+    private final int amount;
+
+    CirculationEvent(long sequence, Type type, CatalogueItem item, Loan loan, int amount) {
+        this.sequence = sequence;
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.item = item;
+        this.loan = loan;
+        this.amount = amount;
+    }
+
+    /**
+     * Returns the position of the event in its stream
+     * @return Sequence number, starting at 0
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns when the event was published
+     * @return Milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the item changed, or the item of the loan changed
+     * @return The catalogue item
+     */
+    public CatalogueItem getItem() {
+        return item;
+    }
+
+    /**
+     * Returns the loan made, returned or extended
+     * @return The loan, or null for changes to the catalogue
+     */
+    public Loan getLoan() {
+        return loan;
+    }
+
+    /**
+     * Returns the number of copies added or days a loan was extended by
+     * @return The amount, or 0 for other events
+     */
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + (loan != null ? loan : item) + (amount != 0 ? " (" + amount + ")" : "");
+    }
+}
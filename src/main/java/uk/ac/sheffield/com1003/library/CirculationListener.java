@@ -0,0 +1,49 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+/**
+ * Receives the changes a {@link Library} makes to its catalogue and loans.
+ * Methods are called on the thread making the change, after it has been made,
+ * so implementations should return quickly.
+ */
+public interface CirculationListener {
+
+    /**
+     * Called when a new item is added to the catalogue
+     */
+    default void itemAdded(CatalogueItem item) {
+    }
+
+    /**
+     * Called when copies are added to an item already in the catalogue;
+     * the number is negative when available copies are sent to another branch
+     */
+    default void copiesAdded(CatalogueItem item, int copies) {
+    }
+
+    /**
+     * Called when a copy of an item is removed; if it was the last copy
+     * the item has also been removed from the catalogue
+     */
+    default void copyRemoved(CatalogueItem item) {
+    }
+
+    /**
+     * Called when a copy of an item is removed, telling whether it was the
+     * last copy and the item has also been removed from the catalogue.
+     * Calls {@link #copyRemoved(CatalogueItem)} unless overridden.
+     */
+    default void copyRemoved(CatalogueItem item, boolean lastCopy) {
+        copyRemoved(item);
+    }
+
+    default void loaned(Loan loan) {
+    }
+
+    default void returned(Loan loan) {
+    }
+
+    default void extended(Loan loan, int days) {
+    }
+}
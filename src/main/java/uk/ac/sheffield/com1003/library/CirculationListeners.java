@@ -0,0 +1,63 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards each change to every registered listener, in registration order.
+ */
+class CirculationListeners implements CirculationListener {
+    private final List<CirculationListener> listeners = new CopyOnWriteArrayList<>();
+
+    void add(CirculationListener listener) {
+        listeners.add(listener);
+    }
+
+    void remove(CirculationListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void itemAdded(CatalogueItem item) {
+        for (CirculationListener listener : listeners) {
+            listener.itemAdded(item);
+        }
+    }
+
+    @Override
+    public void copiesAdded(CatalogueItem item, int copies) {
+        for (CirculationListener listener : listeners) {
+            listener.copiesAdded(item, copies);
+        }
+    }
+
+    @Override
+    public void copyRemoved(CatalogueItem item, boolean lastCopy) {
+        for (CirculationListener listener : listeners) {
+            listener.copyRemoved(item, lastCopy);
+        }
+    }
+
+    @Override
+    public void loaned(Loan loan) {
+        for (CirculationListener listener : listeners) {
+            listener.loaned(loan);
+        }
+    }
+
+    @Override
+    public void returned(Loan loan) {
+        for (CirculationListener listener : listeners) {
+            listener.returned(loan);
+        }
+    }
+
+    @Override
+    public void extended(Loan loan, int days) {
+        for (CirculationListener listener : listeners) {
+            listener.extended(loan, days);
+        }
+    }
+}
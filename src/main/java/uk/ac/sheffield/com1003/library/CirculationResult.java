@@ -0,0 +1,48 @@
+package uk.ac.sheffield.com1003.library;
+
+/**
+ * Outcome of one entry of a batch of loans or returns. Failures are
+ * reported here instead of being thrown, so a batch always completes.
+ */
+public class CirculationResult {
+    /**
+     * What happened to the entry
+     */
+    public enum Status {LOANED, RETURNED, NOT_FOUND, NO_COPY_AVAILABLE, ALREADY_RETURNED}
+
+    static final CirculationResult NOT_FOUND = new CirculationResult(Status.NOT_FOUND, null);
+    static final CirculationResult NO_COPY_AVAILABLE = new CirculationResult(Status.NO_COPY_AVAILABLE, null);
+
+    private final Status status;
+    private final Loan loan;
+
+    CirculationResult(Status status, Loan loan) {
+        this.status = status;
+        this.loan = loan;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the loan made or returned
+     * @return The loan, or null if the item was not found or had no copy available
+     */
+    public Loan getLoan() {
+        return loan;
+    }
+
+    /**
+     * Returns whether the item was loaned or returned
+     * @return true if the entry succeeded; false otherwise
+     */
+    public boolean isSuccess() {
+        return status == Status.LOANED || status == Status.RETURNED;
+    }
+
+    @Override
+    public String toString() {
+        return loan == null ? status.toString() : status + ": " + loan;
+    }
+}
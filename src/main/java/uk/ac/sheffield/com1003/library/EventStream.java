@@ -0,0 +1,196 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes the changes of a library as {@link CirculationEvent}s through a
+ * bounded ring buffer. Register the stream with
+ * {@link Library#addListener(CirculationListener)} and subscribe consumers to it.
+ * <p>
+ * Publishing claims a sequence number with a single atomic increment and
+ * stores the event in its slot; it never waits for subscribers or locks. Each
+ * subscriber reads the buffer at its own pace on its own thread, in batches.
+ * A subscriber that falls more than a buffer behind loses the oldest events
+ * it has not read and is told how many, while other subscribers and the
+ * desks carry on unaffected.
+ */
+public class EventStream implements CirculationListener {
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    private final AtomicReferenceArray<CirculationEvent> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Constructor that takes the number of events the buffer holds
+     * @param capacity Capacity of the buffer, rounded up to a power of two
+     */
+    public EventStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * A subscriber and the thread feeding it
+     */
+    public class Subscription implements Closeable {
+        private final EventSubscriber subscriber;
+        private final int maxBatch;
+        private final Thread thread;
+        private volatile boolean closed;
+        private volatile long position;
+        private final AtomicLong dropped = new AtomicLong();
+
+        private Subscription(EventSubscriber subscriber, int maxBatch, String name) {
+            this.subscriber = subscriber;
+            this.maxBatch = maxBatch;
+            this.position = next.get();
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            List<CirculationEvent> batch = new ArrayList<>(maxBatch);
+            long idle = 0;
+            while (!closed) {
+                long lost = poll(batch);
+                if (lost > 0) {
+                    dropped.addAndGet(lost);
+                    subscriber.onDropped(lost);
+                }
+                if (batch.isEmpty()) {
+                    // Back off gradually so an idle subscriber costs little
+                    idle = Math.min(MAX_PARK_NANOS, Math.max(1_000, idle * 2));
+                    LockSupport.parkNanos(idle);
+                    continue;
+                }
+                idle = 0;
+                subscriber.onEvents(batch);
+                batch.clear();
+            }
+        }
+
+        /**
+         * Moves the events published since the last poll into the batch
+         * @return Number of events overwritten before they could be read
+         */
+        private long poll(List<CirculationEvent> batch) {
+            long lost = 0;
+            long n = position;
+            while (batch.size() < maxBatch) {
+                CirculationEvent event = slots.get((int) n & mask);
+                if (event == null || event.getSequence() < n) {
+                    break; // Not published yet
+                }
+                if (event.getSequence() > n) {
+                    // Overwritten: skip to the oldest event which may still be in the buffer
+                    long oldest = next.get() - slots.length();
+                    long skipTo = Math.max(n + 1, oldest);
+                    lost += skipTo - n;
+                    n = skipTo;
+                    continue;
+                }
+                batch.add(event);
+                n++;
+            }
+            position = n;
+            return lost;
+        }
+
+        /**
+         * Returns the number of events this subscriber has missed
+         * @return Number of events dropped
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Returns the sequence number of the next event this subscriber will read
+         * @return Sequence number
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Stops the subscriber thread after its current batch
+         */
+        @Override
+        public void close() {
+            closed = true;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Starts feeding events published from now on to the given subscriber
+     * @param subscriber The subscriber
+     * @param maxBatch Maximum number of events per call to {@link EventSubscriber#onEvents(List)}
+     * @return The subscription, to be closed when the subscriber is no longer needed
+     */
+    public Subscription subscribe(EventSubscriber subscriber, int maxBatch) {
+        Subscription subscription = new Subscription(subscriber, maxBatch, "event-subscriber");
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Returns the number of events published so far
+     * @return Number of events
+     */
+    public long getPublished() {
+        return next.get();
+    }
+
+    private void publish(CirculationEvent.Type type, CatalogueItem item, Loan loan, int amount) {
+        long sequence = next.getAndIncrement();
+        CirculationEvent event = new CirculationEvent(sequence, type, item, loan, amount);
+        int slot = (int) sequence & mask;
+        CirculationEvent current;
+        do {
+            current = slots.get(slot);
+            if (current != null && current.getSequence() > sequence) {
+                return; // A full lap of later events has already been published over this one
+            }
+        } while (!slots.compareAndSet(slot, current, event));
+    }
+
+    @Override
+    public void itemAdded(CatalogueItem item) {
+        publish(CirculationEvent.Type.ITEM_ADDED, item, null, 0);
+    }
+
+    @Override
+    public void copiesAdded(CatalogueItem item, int copies) {
+        publish(CirculationEvent.Type.COPIES_ADDED, item, null, copies);
+    }
+
+    @Override
+    public void copyRemoved(CatalogueItem item) {
+        publish(CirculationEvent.Type.COPY_REMOVED, item, null, 0);
+    }
+
+    @Override
+    public void loaned(Loan loan) {
+        publish(CirculationEvent.Type.LOANED, loan.getItem(), loan, 0);
+    }
+
+    @Override
+    public void returned(Loan loan) {
+        publish(CirculationEvent.Type.RETURNED, loan.getItem(), loan, 0);
+    }
+
+    @Override
+    public void extended(Loan loan, int days) {
+        publish(CirculationEvent.Type.EXTENDED, loan.getItem(), loan, days);
+    }
+}
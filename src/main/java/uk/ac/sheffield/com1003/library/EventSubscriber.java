@@ -0,0 +1,22 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.util.List;
+
+/**
+ * Consumes the events of an {@link EventStream} in batches, on a thread of its own
+ */
+public interface EventSubscriber {
+
+    /**
+     * Called with the events published since the previous batch, oldest first
+     * @param events The events; the list is reused after this returns
+     */
+    void onEvents(List<CirculationEvent> events);
+
+    /**
+     * Called when events were overwritten before this subscriber could read them
+     * @param count Number of events missed
+     */
+    default void onDropped(long count) {
+    }
+}
@@ -0,0 +1,108 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.time.LocalDateTime;
+
+/**
+ * A patron's place in the queue for a catalogue item. A hold waits until a
+ * copy is set aside for it, and is then ready to be collected until it expires.
+ */
+public class Hold {
+    /**
+     * Stages of a hold
+     */
+    public enum State {
+        /** Waiting in the queue for a copy */
+        WAITING,
+        /** A copy has been set aside and is waiting to be collected */
+        READY,
+        /** The copy set aside was collected as a loan */
+        COLLECTED,
+        /** The copy set aside was not collected in time */
+        EXPIRED,
+        /** The patron cancelled the hold */
+        CANCELLED
+    }
+
+    private final CatalogueItem item;
+    private final Person user;
+    private final int priority;
+    private final LocalDateTime placedDate;
+    final long sequence;
+    private volatile State state = State.WAITING;
+    private volatile LocalDateTime readyUntil;
+    private volatile Loan loan;
+
+    Hold(CatalogueItem item, Person user, int priority, LocalDateTime placedDate, long sequence) {
+        this.item = item;
+        this.user = user;
+        this.priority = priority;
+        this.placedDate = placedDate;
+        this.sequence = sequence;
+    }
+
+    public CatalogueItem getItem() {
+        return item;
+    }
+
+    public Person getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the priority of the hold; holds with a higher priority are served first
+     * @return Priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public LocalDateTime getPlacedDate() {
+        return placedDate;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the time until which the copy set aside waits to be collected
+     * @return Expiry time, or null if no copy has been set aside
+     */
+    public LocalDateTime getReadyUntil() {
+        return readyUntil;
+    }
+
+    /**
+     * Returns the loan made when the hold was collected
+     * @return The loan, or null if the hold has not been collected
+     */
+    public Loan getLoan() {
+        return loan;
+    }
+
+    void ready(LocalDateTime until) {
+        readyUntil = until;
+        state = State.READY;
+    }
+
+    void collected(Loan loan) {
+        this.loan = loan;
+        state = State.COLLECTED;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    @Override
+    public String toString() {
+        return "Hold{" +
+                "item=" + item.getTitle() +
+                ", user=" + user +
+                ", priority=" + priority +
+                ", state=" + state +
+                '}';
+    }
+}
@@ -0,0 +1,316 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.exceptions.HoldNotReadyException;
+import uk.ac.sheffield.com1003.library.exceptions.ItemNotFoundException;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Queues of patrons waiting for items whose copies are all out. Each item has
+ * its own queue, ordered by priority and then by when the hold was placed, so
+ * holds placed with the same priority are served first come, first served.
+ * When a copy comes back it is set aside for the first hold in the queue,
+ * which can then be collected as a loan for a number of days. Holds not
+ * collected in time expire and their copy goes to the next hold.
+ * While anyone is waiting for an item the library lends no copies of it
+ * at the desk: the desk takes copies under the same lock as the queue, so
+ * a copy just returned, still on the shelf until it is set aside, cannot
+ * go to a walk-in patron ahead of the queue. A library has at most one set
+ * of hold queues.
+ * Queues are sorted sets and holds ready to be collected are kept in expiry
+ * order, so placing, cancelling, allocating and expiring a hold each take
+ * logarithmic time however long the queue is, and a return of an item
+ * nobody is waiting for costs a single lookup.
+ * Holds are kept in memory only: after a restart the copies set aside are
+ * back on the shelf.
+ */
+public final class HoldQueues implements CirculationListener {
+    private static final int STRIPES = 64;
+    private static final Comparator<Hold> QUEUE_ORDER =
+            Comparator.comparingInt(Hold::getPriority).reversed().thenComparingLong(hold -> hold.sequence);
+    private static final Comparator<Hold> EXPIRY_ORDER =
+            Comparator.comparing(Hold::getReadyUntil).thenComparingLong(hold -> hold.sequence);
+
+    private final Library library;
+    private final int holdDays;
+    private final Consumer<Hold> onReady;
+    private final Clock clock;
+    private final StripedIdentityMap<CatalogueItem, NavigableSet<Hold>> queues = new StripedIdentityMap<>(STRIPES);
+    private final NavigableSet<Hold> ready = new ConcurrentSkipListSet<>(EXPIRY_ORDER);
+    private final AtomicLong nextSequence = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor that takes the library whose items are held, how long copies
+     * set aside wait to be collected and the listener to notify when a copy
+     * has been set aside, using the system clock
+     * @param library The library
+     * @param holdDays Number of days a copy set aside waits to be collected
+     * @param onReady Listener notified when a hold is ready to be collected
+     * @throws IllegalStateException if the library already has hold queues
+     */
+    public HoldQueues(Library library, int holdDays, Consumer<Hold> onReady) throws IllegalStateException {
+        this(library, holdDays, onReady, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor that takes the library whose items are held, how long copies
+     * set aside wait to be collected, the listener to notify when a copy has
+     * been set aside and the clock to use
+     * @param library The library
+     * @param holdDays Number of days a copy set aside waits to be collected
+     * @param onReady Listener notified when a hold is ready to be collected
+     * @param clock Clock giving the current date and time
+     * @throws IllegalStateException if the library already has hold queues
+     */
+    public HoldQueues(Library library, int holdDays, Consumer<Hold> onReady, Clock clock) throws IllegalStateException {
+        this.library = library;
+        this.holdDays = holdDays;
+        this.onReady = onReady;
+        this.clock = clock;
+        library.setHoldQueues(this);
+        library.addListener(this);
+    }
+
+    /**
+     * Places a hold on an item with the default priority of 0.
+     * If a copy is available it is set aside straight away.
+     * @param titleOrISBN Title or ISBN of the item wanted
+     * @param user Patron placing the hold
+     * @return The hold
+     * @throws ItemNotFoundException if the item is not in the catalogue
+     */
+    public Hold placeHold(String titleOrISBN, Person user) throws ItemNotFoundException {
+        return placeHold(titleOrISBN, user, 0);
+    }
+
+    /**
+     * Places a hold on an item. Holds with a higher priority are served
+     * before those with a lower one. If a copy is available it is set aside straight away.
+     * @param titleOrISBN Title or ISBN of the item wanted
+     * @param user Patron placing the hold
+     * @param priority Priority of the hold
+     * @return The hold
+     * @throws ItemNotFoundException if the item is not in the catalogue
+     */
+    public Hold placeHold(String titleOrISBN, Person user, int priority) throws ItemNotFoundException {
+        CatalogueItem item = library.findItem(titleOrISBN);
+        if (item == null) {
+            throw new ItemNotFoundException("Item with title or ISBN '" + titleOrISBN + "' not found in the catalogue.");
+        }
+        Hold hold = new Hold(item, user, priority, LocalDateTime.now(clock), nextSequence.getAndIncrement());
+        queues.update(item, () -> new TreeSet<>(QUEUE_ORDER), queue -> queue.add(hold));
+        allocate(item);
+        return hold;
+    }
+
+    /**
+     * Lends the copy set aside for a hold to the patron who placed it
+     * @param hold The hold
+     * @return The loan
+     * @throws HoldNotReadyException if no copy is waiting for the hold
+     */
+    public Loan collect(Hold hold) throws HoldNotReadyException {
+        synchronized (queues.lockFor(hold.getItem())) {
+            if (hold.getState() != Hold.State.READY) {
+                throw new HoldNotReadyException("Hold is " + hold.getState().name().toLowerCase() + ", not ready.");
+            }
+            ready.remove(hold);
+            hold.setState(Hold.State.COLLECTED);
+        }
+        Loan loan = library.lend(hold.getItem(), hold.getUser());
+        hold.collected(loan);
+        return loan;
+    }
+
+    /**
+     * Cancels a hold. A copy set aside for it goes to the next hold in the queue.
+     * @param hold The hold
+     * @return true if the hold was waiting or ready; false if it had already been collected, expired or cancelled
+     */
+    public boolean cancel(Hold hold) {
+        CatalogueItem item = hold.getItem();
+        Hold next;
+        synchronized (queues.lockFor(item)) {
+            if (hold.getState() == Hold.State.WAITING) {
+                NavigableSet<Hold> queue = queues.read(item, q -> q);
+                queue.remove(hold);
+                if (queue.isEmpty()) {
+                    queues.remove(item);
+                }
+                hold.setState(Hold.State.CANCELLED);
+                return true;
+            }
+            if (hold.getState() != Hold.State.READY) {
+                return false;
+            }
+            ready.remove(hold);
+            hold.setState(Hold.State.CANCELLED);
+            next = handOver(item, LocalDateTime.now(clock));
+        }
+        if (next != null) {
+            onReady.accept(next);
+        }
+        return true;
+    }
+
+    /**
+     * Expires the holds not collected in time, handing their copies to the next holds in the queue
+     * @return Number of holds expired
+     */
+    public synchronized int expire() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        List<Hold> readied = new ArrayList<>();
+        int expired = 0;
+        Iterator<Hold> it = ready.iterator();
+        while (it.hasNext()) {
+            Hold hold = it.next();
+            if (!hold.getReadyUntil().isBefore(now)) {
+                break;
+            }
+            synchronized (queues.lockFor(hold.getItem())) {
+                if (ready.remove(hold) && hold.getState() == Hold.State.READY) {
+                    hold.setState(Hold.State.EXPIRED);
+                    expired++;
+                    Hold next = handOver(hold.getItem(), now);
+                    if (next != null) {
+                        readied.add(next);
+                    }
+                }
+            }
+        }
+        readied.forEach(onReady);
+        return expired;
+    }
+
+    /**
+     * Returns the holds waiting for an item, in the order they will be served
+     * @param item The item
+     * @return List of waiting holds
+     */
+    public List<Hold> getQueue(CatalogueItem item) {
+        List<Hold> result = queues.read(item, ArrayList::new);
+        return result == null ? new ArrayList<>() : result;
+    }
+
+    /**
+     * Returns the number of holds waiting for an item
+     * @param item The item
+     * @return Number of waiting holds
+     */
+    public int queueLength(CatalogueItem item) {
+        Integer result = queues.read(item, NavigableSet::size);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * Starts expiring holds on a background thread at a fixed rate
+     * @param period Time between checks
+     * @param unit Unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Hold expiry already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hold-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::expire, period, period, unit);
+    }
+
+    /**
+     * Stops the background expiry started by {@link HoldQueues#start(long, TimeUnit)}
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public void copiesAdded(CatalogueItem item, int copies) {
+        if (copies > 0) {
+            allocate(item);
+        }
+    }
+
+    @Override
+    public void returned(Loan loan) {
+        allocate(loan.getItem());
+    }
+
+    /**
+     * Takes copies of an item off the shelf for loans at the desk, unless
+     * patrons are waiting for it
+     * @return Number of copies taken, which is 0 while the queue of the item is not empty
+     */
+    int takeUnheld(CatalogueItem item, int n) {
+        synchronized (queues.lockFor(item)) {
+            if (queues.read(item, q -> q) != null) {
+                return 0;
+            }
+            return n == 1 ? (item.takeCopy() ? 1 : 0) : item.takeCopies(n);
+        }
+    }
+
+    /**
+     * Sets copies on the shelf aside for the holds at the front of the queue of an item
+     */
+    private void allocate(CatalogueItem item) {
+        List<Hold> readied = new ArrayList<>();
+        synchronized (queues.lockFor(item)) {
+            NavigableSet<Hold> queue = queues.read(item, q -> q);
+            if (queue == null) {
+                return;
+            }
+            LocalDateTime until = LocalDateTime.now(clock).plusDays(holdDays);
+            while (!queue.isEmpty() && item.takeCopy()) {
+                Hold hold = queue.pollFirst();
+                hold.ready(until);
+                ready.add(hold);
+                readied.add(hold);
+            }
+            if (queue.isEmpty()) {
+                queues.remove(item);
+            }
+        }
+        readied.forEach(onReady);
+    }
+
+    /**
+     * Passes a copy that was set aside to the next hold in the queue, or puts
+     * it back on the shelf if nobody is waiting. Must hold the lock of the item.
+     * @return The hold the copy was passed to, or null
+     */
+    private Hold handOver(CatalogueItem item, LocalDateTime now) {
+        NavigableSet<Hold> queue = queues.read(item, q -> q);
+        if (queue == null) {
+            item.addCopy();
+            return null;
+        }
+        Hold next = queue.pollFirst();
+        if (queue.isEmpty()) {
+            queues.remove(item);
+        }
+        next.ready(now.plusDays(holdDays));
+        ready.add(next);
+        return next;
+    }
+}
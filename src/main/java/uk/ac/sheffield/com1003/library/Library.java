@@ -1,26 +1,92 @@
 package uk.ac.sheffield.com1003.library;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
+import uk.ac.sheffield.com1003.library.catalogue.AuthorIndex;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueIndex;
 import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueStore;
+import uk.ac.sheffield.com1003.library.catalogue.DuplicateIndex;
+import uk.ac.sheffield.com1003.library.catalogue.SearchIndex;
+import uk.ac.sheffield.com1003.library.catalogue.TitleIndex;
 import uk.ac.sheffield.com1003.library.exceptions.ItemNotFoundException;
 import uk.ac.sheffield.com1003.library.exceptions.NoCopyAvailableException;
 import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
+import uk.ac.sheffield.com1003.library.metrics.LatencyHistogram;
+import uk.ac.sheffield.com1003.library.metrics.Metrics;
 
+/**
+ * A library branch with a catalogue of items and a ledger of loans.
+ * A single library can be shared by many desks and kiosks: copy counts
+ * and loan state change atomically, and loans of different items never
+ * wait on each other.
+ */
 public class Library {
     /**
-     * Use this constant to initialise the catalogue
+     * Use this constant to initialise the catalogue; the catalogue grows beyond it as needed
      */
     private final int CATALOGUE_CAPACITY = 100;
+    private static final int LOCK_STRIPES = 64;
     private String name;
-    private CatalogueItem[] catalogue;
-    private Loan[] loans;
+    private final CatalogueStore catalogue;
+    private final CatalogueIndex index;
+    private final SearchIndex searchIndex;
+    private final TitleIndex titleIndex;
+    private final DuplicateIndex duplicates;
+    private final AuthorIndex authors;
+    private final LoanLedger loans;
+    private final PersonRegistry people = new PersonRegistry();
+    private final CirculationListeners listeners = new CirculationListeners();
     private int loanLength;
+    private final Object[] itemLocks = new Object[LOCK_STRIPES];
+    private volatile Instruments instruments; // Null while metrics are disabled
+    private volatile HoldQueues holds; // Null until hold queues are created for this library
+
+    /**
+     * Instruments for the operations of a library, looked up once when metrics are enabled
+     */
+    private static final class Instruments {
+        private final LatencyHistogram loanItem;
+        private final LatencyHistogram findItem;
+        private final LatencyHistogram returnItem;
+        private final LatencyHistogram extendLoan;
+        private final LatencyHistogram printOverdue;
+        private final LatencyHistogram loanItems;
+        private final LatencyHistogram returnItems;
+        private final LongAdder batchLoans;
+        private final LongAdder batchReturns;
+        private final LongAdder itemNotFound;
+        private final LongAdder noCopyAvailable;
+        private final LongAdder itemAlreadyReturned;
+
+        private Instruments(Metrics metrics) {
+            loanItem = metrics.histogram("library.loanItem");
+            findItem = metrics.histogram("library.findItem");
+            returnItem = metrics.histogram("library.returnItem");
+            extendLoan = metrics.histogram("library.extendLoan");
+            printOverdue = metrics.histogram("library.printOverdue");
+            loanItems = metrics.histogram("library.loanItems");
+            returnItems = metrics.histogram("library.returnItems");
+            batchLoans = metrics.counter("library.batchLoans");
+            batchReturns = metrics.counter("library.batchReturns");
+            itemNotFound = metrics.counter("library.itemNotFound");
+            noCopyAvailable = metrics.counter("library.noCopyAvailable");
+            itemAlreadyReturned = metrics.counter("library.itemAlreadyReturned");
+        }
+    }
 
     /**
      * Constructor that initialises the library name to "Library"
@@ -28,7 +94,6 @@ public class Library {
      */
     public Library() {
         this("Library", 10); // Default values
-        this.loans = new Loan[CATALOGUE_CAPACITY];
     }
 
     /**
@@ -38,7 +103,6 @@ public class Library {
      */
     public Library(String name) {
         this(name, 10); // Default loan length
-        this.loans = new Loan[CATALOGUE_CAPACITY];
     }
 
     /**
@@ -50,8 +114,20 @@ public class Library {
     public Library(String name, int loanLength) {
         this.name = name;
         this.loanLength = loanLength;
-        this.catalogue = new CatalogueItem[CATALOGUE_CAPACITY];
-        this.loans = new Loan[CATALOGUE_CAPACITY];
+        this.catalogue = new CatalogueStore(CATALOGUE_CAPACITY);
+        this.index = new CatalogueIndex();
+        this.searchIndex = new SearchIndex();
+        this.index.addListener(searchIndex);
+        this.titleIndex = new TitleIndex();
+        this.index.addListener(titleIndex);
+        this.duplicates = new DuplicateIndex();
+        this.index.addListener(duplicates);
+        this.authors = new AuthorIndex();
+        this.index.addListener(authors);
+        this.loans = new LoanLedger(listeners);
+        for (int i = 0; i < itemLocks.length; i++) {
+            itemLocks[i] = new Object();
+        }
     }
 
     /**
@@ -74,16 +150,63 @@ public class Library {
      * Add the given book to the catalogue.
      * 
      * @param newItem Item to be added to catalogue
-     * @return Returns true if there is space in the catalogue and new item is successfully added; false otherwise
+     * @return Returns true if the new item is successfully added; false if it is already in a catalogue
      */
     public boolean addItem(CatalogueItem newItem) {
-        for (int i = 0; i < catalogue.length; i++){
-            if (catalogue[i] == null){
-                catalogue[i] = newItem;
-                return true;
+        if (!catalogue.add(newItem)) {
+            return false;
+        }
+        index.add(newItem);
+        listeners.itemAdded(newItem);
+        return true;
+    }
+
+    /**
+     * Adds the given items to the catalogue in one batch
+     *
+     * @param newItems Items to be added to catalogue
+     * @return Number of items added; items already in a catalogue are skipped
+     */
+    public int addItems(Collection<? extends CatalogueItem> newItems) {
+        List<CatalogueItem> added = catalogue.addAll(newItems);
+        for (CatalogueItem item : added) {
+            index.add(item);
+            listeners.itemAdded(item);
+        }
+        return added.size();
+    }
+
+    /**
+     * Adds the given items to the catalogue in one batch. Items whose ISBN is
+     * already in the catalogue, and books equal to a book already in the
+     * catalogue or earlier in the batch, are merged into that item by adding their copies.
+     *
+     * @param newItems Items to be added to catalogue
+     * @return Number of new items added to the catalogue
+     */
+    public int mergeItems(Collection<? extends CatalogueItem> newItems) {
+        List<CatalogueItem> toAdd = new ArrayList<>(newItems.size());
+        Map<Book, Book> batchBooks = new HashMap<>();
+        for (CatalogueItem item : newItems) {
+            CatalogueItem existing = index.findByIsbn(item.getIsbn());
+            if (existing == null && item instanceof Book) {
+                existing = duplicates.find((Book) item);
+            }
+            if (existing != null && existing != item) {
+                existing.addCopies(item.getCopies());
+                listeners.copiesAdded(existing, item.getCopies());
+            } else if (existing == null && item instanceof Book) {
+                Book first = batchBooks.putIfAbsent((Book) item, (Book) item);
+                if (first == null) {
+                    toAdd.add(item);
+                } else if (first != item) {
+                    first.addCopies(item.getCopies()); // Not catalogued yet, so no listener is told
+                }
+            } else {
+                toAdd.add(item);
             }
         }
-        return false;
+        return addItems(toAdd);
     }
 
     /**
@@ -123,18 +246,86 @@ public class Library {
         }
     } 
     
-    private boolean removeCopy(CatalogueItem item) {
-        for (int i = 0; i < catalogue.length; i++) {
-            if (catalogue[i] != null && catalogue[i].equals(item)) {
-                if (catalogue[i].getCopies() > 1) {
-                    catalogue[i].decrementCopies();
-                } else {
-                    catalogue[i] = null; // Remove the last copy
+    /**
+     * Removes a copy of the catalogued book which is the same work as the given one,
+     * e.g. a book described by a BibTeX entry. See {@link Book#equals(Object)}.
+     * @param book Description of the book to be removed
+     * @throws ItemNotFoundException if no equal book is in the catalogue
+     */
+    public void removeCopyOf(Book book) throws ItemNotFoundException {
+        Book item = duplicates.find(book);
+        if (item == null || !removeCopy(item)) {
+            throw new ItemNotFoundException("Book " + book.getTitle() + " not found.");
+        }
+    }
+
+    /**
+     * Removes a copy of the given item, removing the item from the catalogue if it was the last copy
+     * @return true if a copy was removed; false if the item is not in the catalogue
+     */
+    boolean removeCopy(CatalogueItem item) {
+        boolean lastCopy = false;
+        synchronized (lockFor(item)) {
+            if (item.getCopies() <= 1 || !item.takeCopy()) {
+                if (!catalogue.remove(item)) {
+                    return false; // No copies left
                 }
-                return true;
+                index.remove(item); // Removed the last copy
+                lastCopy = true;
+            }
+        }
+        listeners.copyRemoved(item, lastCopy);
+        return true;
+    }
+
+    /**
+     * Removes an item recovered from storage from the catalogue, leaving its copies as they are
+     */
+    void restoreRemoval(CatalogueItem item) {
+        synchronized (lockFor(item)) {
+            if (catalogue.remove(item)) {
+                index.remove(item);
             }
         }
-        return false; // No copies left
+    }
+
+    /**
+     * Takes up to the given number of available copies of an item out of
+     * the catalogue, e.g. to send them to another branch. The item stays in
+     * the catalogue, like an item whose copies are all on loan. Copies owed
+     * to patrons waiting for the item are not taken.
+     * @return Number of copies taken
+     */
+    int takeCopies(CatalogueItem item, int n) {
+        int taken = takeUnheld(item, n);
+        if (taken > 0) {
+            listeners.copiesAdded(item, -taken);
+        }
+        return taken;
+    }
+
+    /**
+     * Adds copies to an item already in the catalogue, e.g. copies sent from another branch
+     */
+    void addCopies(CatalogueItem item, int n) {
+        item.addCopies(n);
+        listeners.copiesAdded(item, n);
+    }
+
+    /**
+     * Tells whether the given item is in the catalogue of this library
+     */
+    boolean holds(CatalogueItem item) {
+        return catalogue.contains(item);
+    }
+
+    /**
+     * Returns the lock guarding changes to the given item which are not a single atomic update.
+     * Items are spread over a fixed number of locks so different items rarely contend.
+     */
+    private Object lockFor(CatalogueItem item) {
+        int h = System.identityHashCode(item);
+        return itemLocks[(h ^ (h >>> 16)) & (itemLocks.length - 1)];
     }
 
     /**
@@ -147,51 +338,334 @@ public class Library {
      * @throws NoCopyAvailableException if there are no copies available of the given book
      */
     public Loan loanItem(String titleOrISBN, Person user) throws ItemNotFoundException, NoCopyAvailableException {
+        Instruments metrics = instruments;
+        long start = metrics == null ? 0 : System.nanoTime();
         CatalogueItem item = findItem(titleOrISBN);
         if (item == null) {
+            if (metrics != null) {
+                metrics.itemNotFound.increment();
+            }
             throw new ItemNotFoundException("Item with title or ISBN '" + titleOrISBN + "' not found in the catalogue.");
         }
 
-        /*if (copiesAvailable(item) == 0) {
+        // Take a copy off the shelf atomically so concurrent loans cannot share the last copy
+        if (takeUnheld(item, 1) == 0) {
+            if (metrics != null) {
+                metrics.noCopyAvailable.increment();
+            }
             throw new NoCopyAvailableException("No copies available for item with title or ISBN '" + titleOrISBN + "'.");
-        }*/
+        }
 
-        // Create a new loan
-        Loan loan = new Loan(item, user, loanLength);
-        item.addCopy();
+        Loan loan = lend(item, user);
+        if (metrics != null) {
+            metrics.loanItem.recordSince(start);
+        }
+        return loan;
+    }
+
+    /**
+     * Takes copies off the shelf for loans made at the desk or for another
+     * branch. While patrons are waiting for the item, copies on the shelf
+     * are owed to their holds and none are taken.
+     * @return Number of copies taken
+     */
+    private int takeUnheld(CatalogueItem item, int n) {
+        HoldQueues queues = holds;
+        if (queues != null) {
+            return queues.takeUnheld(item, n);
+        }
+        return n == 1 ? (item.takeCopy() ? 1 : 0) : item.takeCopies(n);
+    }
+
+    /**
+     * Makes loans at the desk go through the given hold queues
+     * @throws IllegalStateException if the library already has hold queues
+     */
+    synchronized void setHoldQueues(HoldQueues queues) throws IllegalStateException {
+        if (holds != null) {
+            throw new IllegalStateException("Library " + name + " already has hold queues");
+        }
+        holds = queues;
+    }
 
+    /**
+     * Records a new loan of a copy already taken off the shelf
+     * @return The loan
+     */
+    Loan lend(CatalogueItem item, Person user) {
+        Loan loan = new Loan(item, user, loanLength);
+        loans.record(loan);
+        listeners.loaned(loan);
         return loan;
     }
 
+    /**
+     * Registers a batch of loans, such as a class visit. Each distinct title or
+     * ISBN is looked up once and copies of each item are taken in a single
+     * update; when there are not enough copies the earlier requests get them.
+     *
+     * @param requests The items wanted and who wants them
+     * @return One result per request, in the same order
+     */
+    public List<CirculationResult> loanItems(List<LoanRequest> requests) {
+        Instruments metrics = instruments;
+        long start = metrics == null ? 0 : System.nanoTime();
+        Map<String, CatalogueItem> resolved = new HashMap<>();
+        Map<CatalogueItem, Integer> wanted = new IdentityHashMap<>();
+        CatalogueItem[] items = new CatalogueItem[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = resolved.computeIfAbsent(requests.get(i).getTitleOrISBN(), this::findItem);
+            if (items[i] != null) {
+                wanted.merge(items[i], 1, Integer::sum);
+            }
+        }
+        Map<CatalogueItem, Integer> taken = new IdentityHashMap<>();
+        for (Map.Entry<CatalogueItem, Integer> entry : wanted.entrySet()) {
+            taken.put(entry.getKey(), takeUnheld(entry.getKey(), entry.getValue()));
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<CirculationResult> results = new ArrayList<>(items.length);
+        for (int i = 0; i < items.length; i++) {
+            CatalogueItem item = items[i];
+            if (item == null) {
+                results.add(CirculationResult.NOT_FOUND);
+            } else if (taken.merge(item, -1, Integer::sum) < 0) {
+                results.add(CirculationResult.NO_COPY_AVAILABLE);
+            } else {
+                Loan loan = new Loan(item, requests.get(i).getUser(), now, now.plusDays(loanLength), null);
+                loans.record(loan);
+                listeners.loaned(loan);
+                results.add(new CirculationResult(CirculationResult.Status.LOANED, loan));
+            }
+        }
+        if (metrics != null) {
+            count(metrics, results);
+            metrics.loanItems.recordSince(start);
+        }
+        return results;
+    }
+
+    /**
+     * Counts the outcomes of a batch of loans or returns
+     */
+    private static void count(Instruments metrics, List<CirculationResult> results) {
+        for (CirculationResult result : results) {
+            switch (result.getStatus()) {
+                case LOANED:
+                    metrics.batchLoans.increment();
+                    break;
+                case RETURNED:
+                    metrics.batchReturns.increment();
+                    break;
+                case NOT_FOUND:
+                    metrics.itemNotFound.increment();
+                    break;
+                case NO_COPY_AVAILABLE:
+                    metrics.noCopyAvailable.increment();
+                    break;
+                case ALREADY_RETURNED:
+                    metrics.itemAlreadyReturned.increment();
+                    break;
+            }
+        }
+    }
+
     /**
      * Find an item in the catalogue given a title or ISBN.
      * 
      * @param titleOrISBN Title or ISBN of item to find
      * @return The catalogue item found or null otherwise
      */
-    private CatalogueItem findItem(String titleOrISBN) {
-        for (CatalogueItem item : catalogue) {
-            if (item != null && (item.getTitle().equals(titleOrISBN) || item.getIsbn().equals(titleOrISBN))) {
-                return item;
-            }
+    CatalogueItem findItem(String titleOrISBN) {
+        Instruments metrics = instruments;
+        if (metrics == null) {
+            return index.find(titleOrISBN);
         }
-        return null;
+        long start = System.nanoTime();
+        CatalogueItem item = index.find(titleOrISBN);
+        metrics.findItem.recordSince(start);
+        return item;
     }
 
 
+    /**
+     * Searches the titles and author names of the catalogue.
+     * The last word of the query also matches words it is the start of.
+     *
+     * @param query Words to search for
+     * @param limit Maximum number of items to return
+     * @return Matching items, best match first
+     * @throws IllegalArgumentException if the limit is less than one
+     */
+    public List<CatalogueItem> search(String query, int limit) {
+        List<CatalogueItem> items = new ArrayList<>();
+        for (SearchIndex.Result result : searchIndex.search(query, limit)) {
+            items.add(result.getItem());
+        }
+        return items;
+    }
+
+    /**
+     * Returns the books in the catalogue by the given author
+     *
+     * @param author The author
+     * @return Books by the author, in the order they were added
+     */
+    public List<Book> getBooksBy(Person author) {
+        return authors.findByAuthor(author);
+    }
+
+    /**
+     * Suggests words from the titles and author names of the catalogue
+     * which start with the last word typed so far
+     *
+     * @param prefix Text typed so far
+     * @param limit Maximum number of suggestions
+     * @return Suggested words in alphabetical order
+     */
+    public List<String> suggest(String prefix, int limit) {
+        return searchIndex.suggest(prefix, limit);
+    }
+
     /**
      * Mark the item in a Returns a given loan
      */
     public void returnItem(Loan loan) throws ItemAlreadyReturnedException {
-        loan.returnItem(); // This may throw ItemAlreadyReturnedException
+        Instruments metrics = instruments;
+        if (metrics == null) {
+            loan.returnItem(); // This may throw ItemAlreadyReturnedException
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            loan.returnItem();
+        } catch (ItemAlreadyReturnedException e) {
+            metrics.itemAlreadyReturned.increment();
+            throw e;
+        }
+        metrics.returnItem.recordSince(start);
     }
     
 
+    /**
+     * Returns a batch of loans, such as the contents of a returns bin.
+     * All loans get the same returned date and the copies of each item are
+     * put back in a single update.
+     *
+     * @param returns The loans to return
+     * @return One result per loan, in the same order
+     */
+    public List<CirculationResult> returnItems(List<Loan> returns) {
+        Instruments metrics = instruments;
+        long start = metrics == null ? 0 : System.nanoTime();
+        LocalDateTime now = LocalDateTime.now();
+        Map<CatalogueItem, Integer> copies = new IdentityHashMap<>();
+        List<CirculationResult> results = new ArrayList<>(returns.size());
+        for (Loan loan : returns) {
+            if (loan.markReturned(now)) {
+                copies.merge(loan.getItem(), 1, Integer::sum);
+                results.add(new CirculationResult(CirculationResult.Status.RETURNED, loan));
+            } else {
+                results.add(new CirculationResult(CirculationResult.Status.ALREADY_RETURNED, loan));
+            }
+        }
+        for (Map.Entry<CatalogueItem, Integer> entry : copies.entrySet()) {
+            entry.getKey().addCopies(entry.getValue());
+        }
+        for (CirculationResult result : results) {
+            if (result.getStatus() == CirculationResult.Status.RETURNED) {
+                result.getLoan().returned();
+            }
+        }
+        if (metrics != null) {
+            count(metrics, results);
+            metrics.returnItems.recordSince(start);
+        }
+        return results;
+    }
+
     /**
      * Extends the given loan
      */
     public void extendLoan(Loan loan, int days) throws ItemAlreadyReturnedException {
-        loan.extendLoan(days);
+        Instruments metrics = instruments;
+        if (metrics == null) {
+            loan.extendLoan(days);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            loan.extendLoan(days);
+        } catch (ItemAlreadyReturnedException e) {
+            metrics.itemAlreadyReturned.increment();
+            throw e;
+        }
+        metrics.extendLoan.recordSince(start);
+    }
+
+    /**
+     * Starts timing loans, returns, extensions, lookups and overdue reports,
+     * single or in batches, and counting the exceptions they throw or the
+     * failures batches report, in the given registry under
+     * names starting with "library.". While metrics are disabled the only
+     * cost is reading one field per operation.
+     * @param metrics Registry to record into
+     */
+    public void enableMetrics(Metrics metrics) {
+        instruments = new Instruments(metrics);
+    }
+
+    /**
+     * Stops recording metrics
+     */
+    public void disableMetrics() {
+        instruments = null;
+    }
+
+    /**
+     * Registers a listener to be told about every change to the catalogue and loans
+     * @param listener The listener
+     */
+    public void addListener(CirculationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops telling the given listener about changes
+     * @param listener The listener
+     */
+    public void removeListener(CirculationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the ledger of all loans made by this library
+     * @return The loan ledger
+     */
+    public LoanLedger getLoanLedger() {
+        return loans;
+    }
+
+    /**
+     * Returns the registry of the people this library creates, e.g. when importing BibTeX or restoring from storage
+     * @return The person registry
+     */
+    public PersonRegistry getPeople() {
+        return people;
+    }
+
+    int getLoanLength() {
+        return loanLength;
+    }
+
+    /**
+     * Adds a loan recovered from storage to the ledger without telling listeners
+     * @param loan Loan to be restored
+     * @param id Id the loan was given when it was first recorded
+     */
+    void restoreLoan(Loan loan, long id) {
+        loans.restore(loan, id);
     }
 
     /**
@@ -204,23 +678,34 @@ public class Library {
     }
 
     /**
-     * Returns the current list of books in the catalogue excluding nulls
+     * Return the number of copies of a given catalogue item currently on loan
+     * @param item the item
+     * @return number of copies on loan of the given item
+     */
+    public int copiesOnLoan(CatalogueItem item) {
+        return item.getCopiesOnLoan();
+    }
+
+    /**
+     * Returns the current list of books in the catalogue excluding nulls.
+     * The array is shared until the catalogue next changes and must not be modified.
      *
      * @return Array of books contained in the catalogue (excluding nulls)
      */
     public CatalogueItem[] getCatalogue() {
-        // Create a list to store non-null catalogue items
-        List<CatalogueItem> nonNullItems = new ArrayList<>();
-    
-        // Iterate through the catalogue and add non-null items to the list
-        for (CatalogueItem item : catalogue) {
-            if (item != null) {
-                nonNullItems.add(item);
-            }
-        }
-    
-        // Convert the list to an array and return it
-        return nonNullItems.toArray(new CatalogueItem[0]);
+        return catalogue.snapshot();
+    }
+
+    /**
+     * Returns a page of the catalogue in title order. Pass the last item of
+     * a page to get the next one, so listing the whole catalogue page by
+     * page never re-reads earlier pages.
+     * @param after Last item of the previous page, or null for the first page
+     * @param limit Maximum number of items on the page
+     * @return Items in title order
+     */
+    public List<CatalogueItem> listCatalogue(CatalogueItem after, int limit) {
+        return titleIndex.page(after, limit);
     }
 
     /**
@@ -233,18 +718,14 @@ public class Library {
      * ====================
      */
     public void printCatalogue() {
-        System.out.println("====================");
-        System.out.println(welcome());
-        System.out.println("Catalogue");
-        System.out.println("====================");
-        // Sort the catalogue by title in ascending order
-        Arrays.sort(catalogue, Comparator.nullsLast(Comparator.comparing(CatalogueItem::getTitle)));
-        for (CatalogueItem item : catalogue) {
-            if (item != null) {
-                System.out.println(item.toString());
-            }
+        Writer out = consoleWriter();
+        try {
+            ReportWriter report = new ReportWriter(out, ReportWriter.Format.TEXT);
+            report.writeCatalogue(this);
+            report.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        System.out.println("====================");
     }
 
     /**
@@ -258,40 +739,34 @@ public class Library {
      * ====================
      */
     public void printOverdue() {
-        System.out.println("====================");
-        System.out.println("Loans Overdue");
-        System.out.println("====================");
-
-        // Get the current date and time
-        LocalDateTime currentDate = LocalDateTime.now();
-
-        // Create an array to store overdue loans
-        List<Loan> overdueLoans = new ArrayList<>();
-
-        // Iterate through all loans
-        for (Loan loan : loans) {
-            if (loan != null && loan.getDueDate().isBefore(currentDate)) {
-                overdueLoans.add(loan);
-            }
+        Instruments metrics = instruments;
+        long start = metrics == null ? 0 : System.nanoTime();
+        // Loans are kept ordered by due date, so the most overdue come first
+        Writer out = consoleWriter();
+        try {
+            ReportWriter report = new ReportWriter(out, ReportWriter.Format.TEXT);
+            report.writeOverdue(this, LocalDateTime.now());
+            report.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        // Sort overdue loans by the number of days overdue in descending order
-        overdueLoans.sort((loan1, loan2) -> {
-            long daysOverdue1 = ChronoUnit.DAYS.between(loan1.getDueDate(), currentDate);
-            long daysOverdue2 = ChronoUnit.DAYS.between(loan2.getDueDate(), currentDate);
-            return Long.compare(daysOverdue2, daysOverdue1);
-        });
-
-        // Print overdue loans
-        if (overdueLoans.isEmpty()) {
-            System.out.println("====================");
-        } else {
-            for (Loan loan : overdueLoans) {
-                if (loan != null){
-                    System.out.println(loan.toString());
-                    System.out.println("====================");
-                }
-            } 
+        if (metrics != null) {
+            metrics.printOverdue.recordSince(start);
         }
     }
+
+    /**
+     * Returns a buffered writer to the console, so that a report costs one write rather than one per line.
+     * It must be flushed but not closed.
+     */
+    private static Writer consoleWriter() {
+        return new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    }
+
+    /**
+     * Returns the items of the catalogue in title order
+     */
+    Iterable<CatalogueItem> itemsByTitle() {
+        return titleIndex;
+    }
 }       
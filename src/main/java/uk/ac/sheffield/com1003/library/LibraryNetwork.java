@@ -0,0 +1,320 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.Isbn;
+import uk.ac.sheffield.com1003.library.catalogue.Magazine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A network of library branches, each a {@link Library} of its own, with a
+ * merged index of where every ISBN is held. The index keeps a reference to
+ * each holding, so availability is read from the live copy counts of the
+ * branches rather than by searching every catalogue in turn, and it is kept
+ * up to date by a listener on each branch as items are added and removed.
+ * Items are indexed under the ISBN they had when they were added.
+ * Each branch has a lock of its own, taken only to move copies between
+ * branches; loans, returns and lookups never take it, and transfers
+ * between different branches never wait on each other.
+ */
+public class LibraryNetwork {
+    private final List<Branch> branches = new CopyOnWriteArrayList<>();
+    private final Map<String, Branch> byName = new ConcurrentHashMap<>();
+    private final Map<String, List<Holding>> byIsbn = new ConcurrentHashMap<>();
+
+    /**
+     * A branch of the network and the lock guarding copies moving in or out of it
+     */
+    private static final class Branch {
+        private final Library library;
+        private final int ordinal;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Branch(Library library, int ordinal) {
+            this.library = library;
+            this.ordinal = ordinal;
+        }
+    }
+
+    /**
+     * An item held in the catalogue of a branch
+     */
+    private static final class Holding {
+        private final Branch branch;
+        private final CatalogueItem item;
+
+        private Holding(Branch branch, CatalogueItem item) {
+            this.branch = branch;
+            this.item = item;
+        }
+    }
+
+    /**
+     * Keeps the holdings of a branch in the index
+     */
+    private final class BranchListener implements CirculationListener {
+        private final Branch branch;
+
+        private BranchListener(Branch branch) {
+            this.branch = branch;
+        }
+
+        @Override
+        public void itemAdded(CatalogueItem item) {
+            addHolding(branch, item);
+        }
+
+        @Override
+        public void copyRemoved(CatalogueItem item) {
+            if (!branch.library.holds(item)) {
+                removeHolding(branch, item);
+            }
+        }
+    }
+
+    /**
+     * Adds a branch to the network and indexes the items already in its catalogue
+     * @param library The branch
+     * @throws IllegalArgumentException if the network already has a branch with the same name
+     */
+    public synchronized void addBranch(Library library) throws IllegalArgumentException {
+        if (byName.containsKey(library.getName())) {
+            throw new IllegalArgumentException("Branch " + library.getName() + " is already in the network");
+        }
+        Branch branch = new Branch(library, branches.size());
+        library.addListener(new BranchListener(branch));
+        for (CatalogueItem item : library.getCatalogue()) {
+            addHolding(branch, item);
+        }
+        branches.add(branch);
+        byName.put(library.getName(), branch);
+    }
+
+    /**
+     * Returns the branch with the given name
+     * @param name Name of the branch
+     * @return The branch, or null if there is no branch with that name
+     */
+    public Library getBranch(String name) {
+        Branch branch = byName.get(name);
+        return branch == null ? null : branch.library;
+    }
+
+    /**
+     * Returns every branch in the order they were added
+     * @return List of branches
+     */
+    public List<Library> getBranches() {
+        List<Library> result = new ArrayList<>(branches.size());
+        for (Branch branch : branches) {
+            result.add(branch.library);
+        }
+        return result;
+    }
+
+    /**
+     * Adds an item to the branch its ISBN is sharded to, e.g. when stocking
+     * a new network. The same ISBN always goes to the same branch as long as
+     * no branches are added.
+     * @param item Item to be added
+     * @return The branch the item was added to
+     * @throws IllegalStateException if the network has no branches
+     */
+    public Library addItem(CatalogueItem item) throws IllegalStateException {
+        if (branches.isEmpty()) {
+            throw new IllegalStateException("The network has no branches");
+        }
+        String key = key(item.getIsbn());
+        int hash = key == null ? System.identityHashCode(item) : key.hashCode();
+        Library library = branches.get(Math.floorMod(hash, branches.size())).library;
+        library.addItem(item);
+        return library;
+    }
+
+    /**
+     * Returns the number of copies of the given ISBN available across the network
+     * @param isbn ISBN in either form
+     * @return Number of copies available
+     */
+    public int copiesAvailable(String isbn) {
+        int total = 0;
+        for (Holding holding : holdings(isbn)) {
+            total += holding.item.getCopies();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of copies of the given ISBN available at each branch holding it
+     * @param isbn ISBN in either form
+     * @return Copies available by branch name, in the order the branches were added
+     */
+    public Map<String, Integer> availability(String isbn) {
+        List<Holding> holdings = new ArrayList<>(holdings(isbn));
+        holdings.sort((a, b) -> Integer.compare(a.branch.ordinal, b.branch.ordinal));
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Holding holding : holdings) {
+            result.merge(holding.branch.library.getName(), holding.item.getCopies(), Integer::sum);
+        }
+        return result;
+    }
+
+    /**
+     * Finds a branch with a copy of the given ISBN available, trying the preferred branch first
+     * @param isbn ISBN in either form
+     * @param preferred Branch to try first, or null
+     * @return A branch with a copy available, or null if there is none
+     */
+    public Library findAvailable(String isbn, Library preferred) {
+        Library found = null;
+        for (Holding holding : holdings(isbn)) {
+            if (holding.item.getCopies() > 0) {
+                if (holding.branch.library == preferred) {
+                    return preferred;
+                }
+                if (found == null) {
+                    found = holding.branch.library;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Moves available copies of an ISBN from one branch to another. Copies on
+     * loan stay with the branch that lent them. The receiving branch adds the
+     * copies to its own item with the same ISBN, or catalogues a new one.
+     * @param isbn ISBN in either form
+     * @param from Branch sending the copies
+     * @param to Branch receiving the copies
+     * @param n Number of copies wanted
+     * @return Number of copies moved, which is less than n if there were not enough available
+     * @throws IllegalArgumentException if either library is not a branch of this network
+     */
+    public int transfer(String isbn, Library from, Library to, int n) throws IllegalArgumentException {
+        Branch source = branchOf(from);
+        Branch target = branchOf(to);
+        if (source == target || n <= 0) {
+            return 0;
+        }
+        // Always lock the earlier branch first so opposite transfers cannot deadlock
+        Branch first = source.ordinal < target.ordinal ? source : target;
+        Branch second = first == source ? target : source;
+        first.lock.lock();
+        second.lock.lock();
+        try {
+            int moved = 0;
+            CatalogueItem template = null;
+            for (Holding holding : holdings(isbn)) {
+                if (holding.branch == source && moved < n) {
+                    moved += from.takeCopies(holding.item, n - moved);
+                    template = holding.item;
+                }
+            }
+            if (moved > 0) {
+                CatalogueItem existing = to.findItem(template.getIsbn());
+                if (existing != null) {
+                    to.addCopies(existing, moved);
+                } else {
+                    to.addItem(copyOf(template, moved));
+                }
+            }
+            return moved;
+        } finally {
+            second.lock.unlock();
+            first.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a copy of the given ISBN to a branch from any branch with one available
+     * @param isbn ISBN in either form
+     * @param to Branch receiving the copy
+     * @return The branch that sent the copy, or null if no other branch has a copy available
+     * @throws IllegalArgumentException if the library is not a branch of this network
+     */
+    public Library requestTransfer(String isbn, Library to) throws IllegalArgumentException {
+        branchOf(to);
+        for (Holding holding : holdings(isbn)) {
+            Library from = holding.branch.library;
+            if (from != to && holding.item.getCopies() > 0 && transfer(isbn, from, to, 1) == 1) {
+                return from;
+            }
+        }
+        return null;
+    }
+
+    private Branch branchOf(Library library) throws IllegalArgumentException {
+        Branch branch = library == null ? null : byName.get(library.getName());
+        if (branch == null || branch.library != library) {
+            throw new IllegalArgumentException("Library is not a branch of this network");
+        }
+        return branch;
+    }
+
+    private List<Holding> holdings(String isbn) {
+        String key = key(isbn);
+        List<Holding> holdings = key == null ? null : byIsbn.get(key);
+        return holdings == null ? List.of() : holdings;
+    }
+
+    private void addHolding(Branch branch, CatalogueItem item) {
+        String key = key(item.getIsbn());
+        if (key != null) {
+            byIsbn.compute(key, (k, holdings) -> {
+                List<Holding> result = holdings == null ? new CopyOnWriteArrayList<>() : holdings;
+                for (Holding holding : result) {
+                    if (holding.item == item) {
+                        return result; // Added while the branch was joining the network
+                    }
+                }
+                result.add(new Holding(branch, item));
+                return result;
+            });
+        }
+    }
+
+    private void removeHolding(Branch branch, CatalogueItem item) {
+        String key = key(item.getIsbn());
+        if (key != null) {
+            byIsbn.computeIfPresent(key, (k, holdings) -> {
+                holdings.removeIf(holding -> holding.branch == branch && holding.item == item);
+                return holdings.isEmpty() ? null : holdings;
+            });
+        }
+    }
+
+    /**
+     * Returns the index key of an ISBN: the 13-digit form of a valid ISBN,
+     * so that either form finds the same holdings, or the text itself
+     */
+    private static String key(String isbn) {
+        long key = Isbn.parse(isbn);
+        return key != Isbn.INVALID ? Isbn.format(key) : isbn;
+    }
+
+    /**
+     * Returns a new item describing the same work as the given one, with the given number of copies
+     */
+    private static CatalogueItem copyOf(CatalogueItem item, int copies) {
+        CatalogueItem copy;
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            copy = new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getYear(), book.getGenre(), copies);
+        } else if (item instanceof Magazine) {
+            copy = new Magazine(item.getTitle(), item.getYear(), ((Magazine) item).getNumber());
+            copy.setIsbn(item.getIsbn());
+            copy.setCopies(copies);
+        } else {
+            copy = new CatalogueItem(item.getTitle(), item.getYear(), copies, item.getIsbn());
+        }
+        return copy;
+    }
+}
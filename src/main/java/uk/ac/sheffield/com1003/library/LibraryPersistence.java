@@ -0,0 +1,559 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.Magazine;
+import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the state of a {@link Library} on disk so it survives a restart.
+ * Every change to the catalogue and loans is appended to a {@link WriteAheadLog}
+ * in the given directory. A checkpoint seals the current log segment, replays
+ * the previous snapshot and the sealed segments into a private copy of the
+ * library, writes that copy as a new compact binary snapshot and deletes the
+ * segments it covers, so the library in use is never paused. Opening the
+ * directory again loads the latest snapshot and replays the segments after it.
+ * Changes made directly to items, such as {@link CatalogueItem#setTitle(String)},
+ * are not recorded.
+ * Changes are recorded by a {@link CirculationListener} after they are made,
+ * so two desks changing the same item may log in a different order than they
+ * changed it, e.g. a loan of a copy and the removal of the item. Records
+ * therefore say what a change did, not what was asked for: copies are
+ * added or taken as counts and a removed item is recorded as removed, so
+ * replaying them in either order gives the state the library was in.
+ */
+public class LibraryPersistence implements Closeable {
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final int SNAPSHOT_MAGIC = 0x4C494253;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final byte ITEM_ADDED = 1;
+    private static final byte COPIES_ADDED = 2;
+    private static final byte COPY_REMOVED = 3;
+    private static final byte LOANED = 4;
+    private static final byte RETURNED = 5;
+    private static final byte EXTENDED = 6;
+    private static final byte ITEM_REMOVED = 7;
+
+    private static final byte KIND_ITEM = 0;
+    private static final byte KIND_BOOK = 1;
+    private static final byte KIND_MAGAZINE = 2;
+
+    private final Path directory;
+    private final Library library;
+    private final WriteAheadLog log;
+    private final StripedIdentityMap<CatalogueItem, Long> itemIds = new StripedIdentityMap<>(64);
+    private final AtomicLong nextItemId;
+    private final Journal journal = new Journal();
+    private ScheduledExecutorService scheduler;
+    private volatile Exception lastCheckpointFailure;
+
+    /**
+     * State rebuilt from a snapshot and log segments
+     */
+    private static class State {
+        private Library library;
+        private final Map<Long, CatalogueItem> items = new HashMap<>();
+        private long nextItemId = 1;
+        private long lastSegment;
+    }
+
+    private LibraryPersistence(Path directory, State state, boolean durable) throws IOException {
+        this.directory = directory;
+        this.library = state.library;
+        this.nextItemId = new AtomicLong(state.nextItemId);
+        for (Map.Entry<Long, CatalogueItem> entry : state.items.entrySet()) {
+            itemIds.update(entry.getValue(), entry::getKey, id -> { });
+        }
+        this.log = new WriteAheadLog(directory, durable);
+        library.addListener(journal);
+    }
+
+    /**
+     * Opens the library stored in the given directory, or creates an empty one there
+     * @param directory Directory holding the snapshot and log
+     * @param name Name of the library if a new one is created
+     * @param loanLength Loan length of the library if a new one is created
+     * @param durable Whether changes wait until they have been forced to disk
+     * @return The opened persistence, whose library is ready to use
+     * @throws IOException if the directory cannot be read
+     */
+    public static LibraryPersistence open(Path directory, String name, int loanLength, boolean durable) throws IOException {
+        Files.createDirectories(directory);
+        Path snapshotPath = directory.resolve(SNAPSHOT);
+        State state = readSnapshot(snapshotPath);
+        if (state == null) {
+            // An empty snapshot records the name and loan length of the new library
+            state = new State();
+            state.library = new Library(name, loanLength);
+            writeSnapshot(snapshotPath, state);
+        }
+        for (long segment : WriteAheadLog.segments(directory)) {
+            if (segment > state.lastSegment) {
+                replay(state, WriteAheadLog.segmentPath(directory, segment));
+                state.lastSegment = segment;
+            }
+        }
+        return new LibraryPersistence(directory, state, durable);
+    }
+
+    /**
+     * Returns the library whose changes are being recorded
+     * @return The library
+     */
+    public Library getLibrary() {
+        return library;
+    }
+
+    /**
+     * Writes a new snapshot covering every change recorded so far and deletes
+     * the log segments it replaces. The library can be used while this runs.
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        long sealed = log.rotate();
+        Path snapshotPath = directory.resolve(SNAPSHOT);
+        State state = readSnapshot(snapshotPath);
+        List<Long> segments = WriteAheadLog.segments(directory);
+        for (long segment : segments) {
+            if (segment > state.lastSegment && segment <= sealed) {
+                replay(state, WriteAheadLog.segmentPath(directory, segment));
+            }
+        }
+        state.lastSegment = sealed;
+
+        Path temporary = directory.resolve(SNAPSHOT + ".tmp");
+        writeSnapshot(temporary, state);
+        Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long segment : segments) {
+            if (segment <= sealed) {
+                Files.deleteIfExists(WriteAheadLog.segmentPath(directory, segment));
+            }
+        }
+    }
+
+    /**
+     * Starts writing checkpoints on a background thread at a fixed rate. A
+     * checkpoint that fails is not reported here; the next one tries again and
+     * {@link #getLastCheckpointFailure()} tells why the last one failed
+     * @param period Time between checkpoints
+     * @param unit Unit of the period
+     */
+    public synchronized void startCheckpoints(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Checkpoints already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                checkpoint();
+                lastCheckpointFailure = null;
+            } catch (IOException | RuntimeException e) {
+                // The log still holds every change, so the next checkpoint can catch up
+                lastCheckpointFailure = e;
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Returns why the last background checkpoint failed
+     * @return The exception thrown by the last background checkpoint, or null if it succeeded or none has run
+     */
+    public Exception getLastCheckpointFailure() {
+        return lastCheckpointFailure;
+    }
+
+    /**
+     * Waits until every change recorded so far is on disk
+     */
+    public void sync() {
+        log.sync();
+    }
+
+    /**
+     * Stops recording changes and closes the log
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        library.removeListener(journal);
+        log.close();
+    }
+
+    private long idOf(CatalogueItem item) {
+        Long id = itemIds.read(item, value -> value);
+        if (id == null) {
+            throw new IllegalStateException("Item was added to the library before it was opened: " + item);
+        }
+        return id;
+    }
+
+    /**
+     * Appends each change made to the library to the log
+     */
+    private class Journal implements CirculationListener {
+        @Override
+        public void itemAdded(CatalogueItem item) {
+            // An item added again after being removed is recorded as a new item
+            long id = nextItemId.getAndIncrement();
+            itemIds.remove(item);
+            itemIds.update(item, () -> id, value -> { });
+            append(out -> {
+                out.writeByte(ITEM_ADDED);
+                out.writeLong(id);
+                writeItem(out, item);
+            });
+        }
+
+        @Override
+        public void copiesAdded(CatalogueItem item, int copies) {
+            long id = idOf(item);
+            append(out -> {
+                out.writeByte(COPIES_ADDED);
+                out.writeLong(id);
+                out.writeInt(copies);
+            });
+        }
+
+        @Override
+        public void copyRemoved(CatalogueItem item, boolean lastCopy) {
+            long id = idOf(item);
+            append(out -> {
+                // Replay must not decide again whether it was the last copy: a loan may be logged after it
+                out.writeByte(lastCopy ? ITEM_REMOVED : COPIES_ADDED);
+                out.writeLong(id);
+                if (!lastCopy) {
+                    out.writeInt(-1);
+                }
+            });
+        }
+
+        @Override
+        public void loaned(Loan loan) {
+            long itemId = idOf(loan.getItem());
+            append(out -> {
+                out.writeByte(LOANED);
+                out.writeLong(itemId);
+                // The return, even if it has already happened, has a record of its own
+                writeLoan(out, loan, null);
+            });
+        }
+
+        @Override
+        public void returned(Loan loan) {
+            append(out -> {
+                out.writeByte(RETURNED);
+                out.writeLong(loan.getId());
+                writeDate(out, loan.getReturnedDate());
+            });
+        }
+
+        @Override
+        public void extended(Loan loan, int days) {
+            append(out -> {
+                out.writeByte(EXTENDED);
+                out.writeLong(loan.getId());
+                out.writeInt(days);
+            });
+        }
+
+        private void append(RecordWriter writer) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try {
+                writer.write(new DataOutputStream(bytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // Writing to memory cannot fail
+            }
+            log.append(bytes.toByteArray());
+        }
+    }
+
+    private interface RecordWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    /**
+     * Applies the records of a log segment to the given state. Records that no
+     * longer apply, e.g. a loan of an item removed by a concurrent desk, are skipped.
+     */
+    private static void replay(State state, Path segment) throws IOException {
+        Library library = state.library;
+        for (byte[] record : WriteAheadLog.read(segment)) {
+            DataInput in = new DataInputStream(new ByteArrayInputStream(record));
+            byte type = in.readByte();
+            switch (type) {
+                case ITEM_ADDED: {
+                    long id = in.readLong();
+                    CatalogueItem item = readItem(in, library.getPeople());
+                    state.items.put(id, item);
+                    state.nextItemId = Math.max(state.nextItemId, id + 1);
+                    library.addItem(item);
+                    break;
+                }
+                case COPIES_ADDED: {
+                    CatalogueItem item = state.items.get(in.readLong());
+                    int copies = in.readInt();
+                    if (item != null) {
+                        item.addCopies(copies);
+                    }
+                    break;
+                }
+                case COPY_REMOVED: {
+                    // Written by earlier versions, which left it to replay to tell whether it was the last copy
+                    CatalogueItem item = state.items.get(in.readLong());
+                    if (item != null) {
+                        library.removeCopy(item);
+                    }
+                    break;
+                }
+                case ITEM_REMOVED: {
+                    CatalogueItem item = state.items.get(in.readLong());
+                    if (item != null) {
+                        library.restoreRemoval(item);
+                    }
+                    break;
+                }
+                case LOANED: {
+                    CatalogueItem item = state.items.get(in.readLong());
+                    if (item != null) {
+                        // Not takeCopy(): the return that freed the copy may be recorded after this loan
+                        item.addCopies(-1);
+                        readLoan(in, item, library);
+                    }
+                    break;
+                }
+                case RETURNED: {
+                    Loan loan = library.getLoanLedger().getLoan(in.readLong());
+                    LocalDateTime date = readDate(in);
+                    if (loan != null) {
+                        loan.restoreReturn(date);
+                    }
+                    break;
+                }
+                case EXTENDED: {
+                    Loan loan = library.getLoanLedger().getLoan(in.readLong());
+                    int days = in.readInt();
+                    if (loan != null) {
+                        try {
+                            loan.extendLoan(days);
+                        } catch (ItemAlreadyReturnedException e) {
+                            // Returned before the extension was recorded
+                        }
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown record type " + type + " in " + segment);
+            }
+        }
+    }
+
+    private static void writeSnapshot(Path path, State state) throws IOException {
+        Library library = state.library;
+        Map<CatalogueItem, Long> ids = new IdentityHashMap<>();
+        for (Map.Entry<Long, CatalogueItem> entry : state.items.entrySet()) {
+            ids.put(entry.getValue(), entry.getKey());
+        }
+        CatalogueItem[] catalogue = library.getCatalogue();
+        Map<CatalogueItem, Boolean> inCatalogue = new IdentityHashMap<>();
+        for (CatalogueItem item : catalogue) {
+            inCatalogue.put(item, Boolean.TRUE);
+        }
+        List<Loan> loans = library.getLoanLedger().getAllLoans();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(state.lastSegment);
+            writeString(out, library.getName());
+            out.writeInt(library.getLoanLength());
+            out.writeLong(state.nextItemId);
+            // Items no longer in the catalogue are kept while loans refer to them
+            out.writeInt(state.items.size());
+            for (Map.Entry<Long, CatalogueItem> entry : state.items.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeBoolean(inCatalogue.containsKey(entry.getValue()));
+                writeItem(out, entry.getValue());
+            }
+            out.writeInt(loans.size());
+            for (Loan loan : loans) {
+                out.writeLong(ids.get(loan.getItem()));
+                writeLoan(out, loan, loan.getReturnedDate());
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    private static State readSnapshot(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a library snapshot: " + path);
+            }
+            State state = new State();
+            state.lastSegment = in.readLong();
+            String name = readString(in);
+            state.library = new Library(name, in.readInt());
+            state.nextItemId = in.readLong();
+            int items = in.readInt();
+            List<CatalogueItem> catalogue = new ArrayList<>(items);
+            for (int i = 0; i < items; i++) {
+                long id = in.readLong();
+                boolean inCatalogue = in.readBoolean();
+                CatalogueItem item = readItem(in, state.library.getPeople());
+                state.items.put(id, item);
+                if (inCatalogue) {
+                    catalogue.add(item);
+                }
+            }
+            state.library.addItems(catalogue);
+            int loans = in.readInt();
+            for (int i = 0; i < loans; i++) {
+                // Copies in the snapshot already account for the loans
+                readLoan(in, state.items.get(in.readLong()), state.library);
+            }
+            return state;
+        }
+    }
+
+    private static void writeItem(DataOutput out, CatalogueItem item) throws IOException {
+        if (item instanceof Book) {
+            Book book = (Book) item;
+            out.writeByte(KIND_BOOK);
+            writeCommon(out, item);
+            Person author = book.getAuthor();
+            out.writeBoolean(author != null);
+            if (author != null) {
+                writeString(out, author.getFirstName());
+                writeString(out, author.getLastName());
+            }
+            out.writeInt(book.getGenre() == null ? -1 : book.getGenre().ordinal());
+        } else if (item instanceof Magazine) {
+            out.writeByte(KIND_MAGAZINE);
+            writeCommon(out, item);
+            out.writeInt(((Magazine) item).getNumber());
+        } else {
+            out.writeByte(KIND_ITEM);
+            writeCommon(out, item);
+        }
+    }
+
+    private static void writeCommon(DataOutput out, CatalogueItem item) throws IOException {
+        writeString(out, item.getTitle());
+        writeString(out, item.getIsbn());
+        out.writeInt(item.getYear());
+        out.writeInt(item.getCopies());
+    }
+
+    private static CatalogueItem readItem(DataInput in, PersonRegistry people) throws IOException {
+        byte kind = in.readByte();
+        String title = readString(in);
+        String isbn = readString(in);
+        int year = in.readInt();
+        int copies = in.readInt();
+        switch (kind) {
+            case KIND_BOOK: {
+                Person author = in.readBoolean() ? people.intern(readString(in), readString(in)) : null;
+                int genre = in.readInt();
+                return new Book(title, author, isbn, year, genre < 0 ? null : Book.Genre.values()[genre], copies);
+            }
+            case KIND_MAGAZINE: {
+                Magazine magazine = new Magazine(title, year, in.readInt());
+                magazine.setCopies(copies);
+                return magazine;
+            }
+            case KIND_ITEM:
+                return new CatalogueItem(title, year, copies, isbn);
+            default:
+                throw new IOException("Unknown item kind " + kind);
+        }
+    }
+
+    private static void writeLoan(DataOutput out, Loan loan, LocalDateTime returned) throws IOException {
+        out.writeLong(loan.getId());
+        writeString(out, loan.getUser().getFirstName());
+        writeString(out, loan.getUser().getLastName());
+        writeDate(out, loan.getLoanDate());
+        writeDate(out, loan.getDueDate());
+        writeDate(out, returned);
+    }
+
+    private static Loan readLoan(DataInput in, CatalogueItem item, Library library) throws IOException {
+        long id = in.readLong();
+        Person user = library.getPeople().intern(readString(in), readString(in));
+        LocalDateTime loanDate = readDate(in);
+        LocalDateTime dueDate = readDate(in);
+        Loan loan = new Loan(item, user, loanDate, dueDate, readDate(in));
+        library.restoreLoan(loan, id);
+        return loan;
+    }
+
+    private static void writeDate(DataOutput out, LocalDateTime date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null) {
+            out.writeLong(date.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(date.getNano());
+        }
+    }
+
+    private static LocalDateTime readDate(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -2,16 +2,23 @@ package uk.ac.sheffield.com1003.library;
 
 import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
 import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Loan {
-    
+    static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
     private CatalogueItem item;
     private Person user;
     private LocalDateTime loanDate;
-    private LocalDateTime dueDate;
-    private LocalDateTime returnedDate;
+    private volatile LocalDateTime dueDate;
+    private final AtomicReference<LocalDateTime> returnedDate = new AtomicReference<>();
+    long id;
+    LoanLedger ledger;
 
     /**
      * Constructor that takes as parameters the item being loaned,
@@ -30,7 +37,25 @@ public class Loan {
         this.user = user;
         this.loanDate = LocalDateTime.now();
         this.dueDate = loanDate.plusDays(loanLength);
-        this.returnedDate = null;
+    }
+
+    /**
+     * Constructor for a loan recovered from storage, with its original dates
+     */
+    Loan(CatalogueItem item, Person user, LocalDateTime loanDate, LocalDateTime dueDate, LocalDateTime returnedDate) {
+        this.item = item;
+        this.user = user;
+        this.loanDate = loanDate;
+        this.dueDate = dueDate;
+        this.returnedDate.set(returnedDate);
+    }
+
+    /**
+     * Returns the id assigned to this loan by the library that recorded it
+     * @return Loan id, or 0 if the loan has not been recorded by a library
+     */
+    public long getId() {
+        return id;
     }
 
     public CatalogueItem getItem() {
@@ -47,12 +72,16 @@ public class Loan {
     }
     
     public LocalDateTime getReturnedDate() {
-        return returnedDate;
+        return returnedDate.get();
     }
     
     public LocalDateTime getDueDate() {
         return dueDate;
     }
+
+    void setDueDate(LocalDateTime dueDate) {
+        this.dueDate = dueDate;
+    }
     
 
     /**
@@ -64,38 +93,99 @@ public class Loan {
      * Thank you!
      */
     public void printReceipt() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-        System.out.println("Loan date: " + loanDate.format(formatter));
-        System.out.println(user.getFirstName() + " " +user.getLastName()+ " has borrowed " + item.getTitle());
-        System.out.println("Date due: " + dueDate.format(formatter));
-        System.out.println("Returned: " + (returnedDate != null ? returnedDate.format(formatter) : "n/a"));
-        System.out.println("Thank you!");
+        StringBuilder receipt = new StringBuilder(160);
+        try {
+            writeReceipt(receipt);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Appending to a StringBuilder cannot fail
+        }
+        System.out.print(receipt);
+    }
+
+    /**
+     * Writes the receipt printed by {@link Loan#printReceipt()} to the given output
+     * @param out Where to write the receipt
+     * @throws IOException if the output cannot be written
+     */
+    public void writeReceipt(Appendable out) throws IOException {
+        String newLine = System.lineSeparator();
+        out.append("Loan date: ");
+        DATE_TIME.formatTo(loanDate, out);
+        out.append(newLine).append(user.getFirstName()).append(' ').append(user.getLastName())
+                .append(" has borrowed ").append(item.getTitle()).append(newLine);
+        out.append("Date due: ");
+        DATE_TIME.formatTo(dueDate, out);
+        out.append(newLine).append("Returned: ");
+        LocalDateTime returned = returnedDate.get();
+        if (returned != null) {
+            DATE_TIME.formatTo(returned, out);
+        } else {
+            out.append("n/a");
+        }
+        out.append(newLine).append("Thank you!").append(newLine);
     }
     
 
     /**
-     * Updates field {@link Loan#returnedDate} with current date and time
+     * Updates field {@link Loan#returnedDate} with current date and time.
+     * Only one of any concurrent calls succeeds in returning the item.
      * @throws ItemAlreadyReturnedException if the item was already returned
      */
     public void returnItem() throws ItemAlreadyReturnedException {
-        if (returnedDate != null) {
+        if (!markReturned(LocalDateTime.now())) {
             throw new ItemAlreadyReturnedException("Item has already been returned.");
         }
-        returnedDate = LocalDateTime.now();
         item.addCopy();
+        returned();
+    }
+
+    /**
+     * Marks a loan recovered from storage as returned on the given date
+     * @return false if the loan was already returned
+     */
+    boolean restoreReturn(LocalDateTime date) {
+        if (!markReturned(date)) {
+            return false;
+        }
+        item.addCopy();
+        returned();
+        return true;
+    }
+
+    /**
+     * Sets the returned date unless the loan has already been returned.
+     * The caller must then put the copy back and call {@link Loan#returned()}.
+     * @return false if the loan was already returned
+     */
+    boolean markReturned(LocalDateTime date) {
+        return returnedDate.compareAndSet(null, date);
+    }
+
+    /**
+     * Tells the ledger the loan has been returned
+     */
+    void returned() {
+        if (ledger != null) {
+            synchronized (this) {
+                ledger.returned(this);
+            }
+        }
     }
 
     /**
      * Extends the loan term by adding the given amount of days to field {@link Loan#dueDate}
      * @throws ItemAlreadyReturnedException if the item was already returned
      */
-    public void extendLoan(int days) throws ItemAlreadyReturnedException {
-        if (returnedDate != null) {
+    public synchronized void extendLoan(int days) throws ItemAlreadyReturnedException {
+        if (returnedDate.get() != null) {
             throw new ItemAlreadyReturnedException("Item has already been returned.");
         }
-        dueDate = dueDate.plusDays(days);
+        if (ledger != null) {
+            ledger.extended(this, days);
+        } else {
+            dueDate = dueDate.plusDays(days);
+        }
     }
-    
 
     /**
      * Returns a string representation of a Loan
@@ -105,16 +195,26 @@ public class Loan {
      */
     @Override
     public String toString() {
-        String loanString = "Loan: User=" + user.getFirstName() + " " + user.getLastName() +
-            "; Item=" + item.getTitle() +
-            "; Due=" + dueDate.format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+        StringBuilder loanString = new StringBuilder(96);
+        appendTo(loanString);
+        return loanString.toString();
+    }
 
-        if (returnedDate != null) {
-            loanString += "; Returned=" + returnedDate.format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+    /**
+     * Appends the text returned by {@link Loan#toString()} to the given builder
+     */
+    void appendTo(StringBuilder out) {
+        out.append("Loan: User=").append(user.getFirstName()).append(' ').append(user.getLastName())
+            .append("; Item=").append(item.getTitle())
+            .append("; Due=");
+        DATE.formatTo(dueDate, out);
+
+        LocalDateTime returned = returnedDate.get();
+        out.append("; Returned=");
+        if (returned != null) {
+            DATE.formatTo(returned, out);
         } else {
-            loanString += "; Returned=n/a";
+            out.append("n/a");
         }
-
-        return loanString;
     }
-}
\ No newline at end of file
+}
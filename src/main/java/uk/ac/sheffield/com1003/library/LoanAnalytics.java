@@ -0,0 +1,307 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.Isbn;
+import uk.ac.sheffield.com1003.library.metrics.CountMinSketch;
+import uk.ac.sheffield.com1003.library.metrics.RollingCounter;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the loans and returns of a library as they happen, so questions such
+ * as "how many loans this week", "how busy is non-fiction today" or "what are
+ * the most borrowed titles" are answered without scanning the loan history.
+ * Loans and returns are counted per hour for the last week and loans per day
+ * for the last quarter, in {@link RollingCounter rolling counters} that take
+ * one atomic update per event and a fixed amount of memory however long the
+ * library runs. Hours and days are in UTC.
+ * Loans per item are counted in a {@link CountMinSketch} per day for the last
+ * {@value #DAYS} days, so memory does not grow with the catalogue; the items
+ * whose estimates are highest are kept as candidates for the rankings. A loan
+ * only updates the candidates when its item is one or has overtaken the least
+ * popular one, and then without a global lock: candidates are looked up in a
+ * concurrent map and ordered by estimate in a skip list, so the least popular
+ * is dropped without scanning the others.
+ */
+public final class LoanAnalytics implements CirculationListener {
+    /**
+     * Number of days item popularity is kept for
+     */
+    public static final int DAYS = 7;
+
+    private static final long HOUR = 3_600_000L;
+    private static final long DAY = 24 * HOUR;
+    private static final int HOURS_KEPT = 7 * 24;
+    private static final int DAYS_KEPT = 90;
+    private static final int SKETCH_WIDTH = 4096;
+    private static final int SKETCH_DEPTH = 4;
+
+    private final Clock clock;
+    private final int capacity;
+    private final RollingCounter loansPerHour = new RollingCounter(HOUR, HOURS_KEPT);
+    private final RollingCounter loansPerDay = new RollingCounter(DAY, DAYS_KEPT);
+    private final RollingCounter returnsPerHour = new RollingCounter(HOUR, HOURS_KEPT);
+    private final RollingCounter[] genreLoans;
+    // Today's sketch and the previous days', each cleared when the ring comes round to it again
+    private final CountMinSketch[] sketches = new CountMinSketch[DAYS + 1];
+    private final AtomicLongArray sketchDays = new AtomicLongArray(DAYS + 1);
+    // Candidates by sketch key, and the same candidates from the lowest estimate to the highest
+    private final Map<Long, Candidate> candidates = new ConcurrentHashMap<>();
+    private final NavigableSet<Candidate> byEstimate = new ConcurrentSkipListSet<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile long floor;
+
+    /**
+     * An item kept for the rankings and its estimate when it was last loaned.
+     * A new candidate replaces it when the estimate changes, so its position
+     * in the skip list never does.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+        private final CatalogueItem item;
+        private final long key;
+        private final long estimate;
+        private final long sequence;
+
+        private Candidate(CatalogueItem item, long key, long estimate, long sequence) {
+            this.item = item;
+            this.key = key;
+            this.estimate = estimate;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int c = Long.compare(estimate, other.estimate);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * An item and its estimated number of loans
+     */
+    public static final class Ranked {
+        private final CatalogueItem item;
+        private final long loans;
+
+        private Ranked(CatalogueItem item, long loans) {
+            this.item = item;
+            this.loans = loans;
+        }
+
+        public CatalogueItem getItem() {
+            return item;
+        }
+
+        /**
+         * Returns the estimated number of loans, which may be slightly too high but never too low
+         * @return Estimated loans
+         */
+        public long getLoans() {
+            return loans;
+        }
+    }
+
+    /**
+     * Constructor that takes the library to follow and the length of the rankings, using the system clock
+     * @param library The library
+     * @param topK Number of most borrowed items that can be ranked
+     */
+    public LoanAnalytics(Library library, int topK) {
+        this(library, topK, Clock.systemUTC());
+    }
+
+    /**
+     * Constructor that takes the library to follow, the length of the rankings and the clock to count with
+     * @param library The library
+     * @param topK Number of most borrowed items that can be ranked
+     * @param clock Clock giving the current time
+     */
+    public LoanAnalytics(Library library, int topK, Clock clock) {
+        if (topK < 1) {
+            throw new IllegalArgumentException("Rankings must have at least one item");
+        }
+        this.clock = clock;
+        // Keeping a few times more candidates than are ranked lets a rising item catch up
+        this.capacity = topK * 4;
+        this.genreLoans = new RollingCounter[Book.Genre.values().length + 1];
+        for (int i = 0; i < genreLoans.length; i++) {
+            genreLoans[i] = new RollingCounter(HOUR, HOURS_KEPT);
+        }
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+            sketchDays.set(i, -1);
+        }
+        library.addListener(this);
+    }
+
+    @Override
+    public void loaned(Loan loan) {
+        long now = clock.millis();
+        CatalogueItem item = loan.getItem();
+        loansPerHour.increment(now);
+        loansPerDay.increment(now);
+        genreLoans[genreIndex(item)].increment(now);
+
+        long day = now / DAY;
+        long key = key(item);
+        sketchFor(day).add(key, 1);
+        long estimate = estimate(key, day, DAYS);
+        if (estimate > floor || candidates.containsKey(key)) {
+            rank(item, key, estimate);
+        }
+    }
+
+    @Override
+    public void returned(Loan loan) {
+        returnsPerHour.increment(clock.millis());
+    }
+
+    /**
+     * Returns the number of loans in each of the most recent hours
+     * @param hours Number of hours, at most a week's worth
+     * @return Loans per hour, oldest first, ending with the current hour
+     */
+    public long[] loansPerHour(int hours) {
+        return loansPerHour.recent(hours, clock.millis());
+    }
+
+    /**
+     * Returns the number of loans in each of the most recent days
+     * @param days Number of days, at most 90
+     * @return Loans per day, oldest first, ending with today
+     */
+    public long[] loansPerDay(int days) {
+        return loansPerDay.recent(days, clock.millis());
+    }
+
+    /**
+     * Returns the number of returns in each of the most recent hours
+     * @param hours Number of hours, at most a week's worth
+     * @return Returns per hour, oldest first, ending with the current hour
+     */
+    public long[] returnsPerHour(int hours) {
+        return returnsPerHour.recent(hours, clock.millis());
+    }
+
+    /**
+     * Returns the number of loans of books of a genre in the most recent hours
+     * @param genre The genre, or null for items with no genre, including items which are not books
+     * @param hours Number of hours, at most a week's worth
+     * @return Number of loans
+     */
+    public long genreLoans(Book.Genre genre, int hours) {
+        int index = genre == null ? genreLoans.length - 1 : genre.ordinal();
+        return genreLoans[index].total(hours, clock.millis());
+    }
+
+    /**
+     * Estimates the number of loans of an item in the most recent days
+     * @param item The item
+     * @param days Number of days, ending with today, at most {@value #DAYS}
+     * @return Estimated loans, which may be slightly too high but never too low
+     */
+    public long estimateLoans(CatalogueItem item, int days) {
+        return estimate(key(item), clock.millis() / DAY, days);
+    }
+
+    /**
+     * Returns the most borrowed items of the last {@value #DAYS} days
+     * @param k Number of items wanted
+     * @return Up to k items, most borrowed first
+     */
+    public List<Ranked> topItems(int k) {
+        long day = clock.millis() / DAY;
+        List<Ranked> ranked = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates.values()) {
+            long loans = estimate(candidate.key, day, DAYS);
+            if (loans > 0) {
+                ranked.add(new Ranked(candidate.item, loans));
+            }
+        }
+        ranked.sort((a, b) -> Long.compare(b.loans, a.loans));
+        return ranked.size() > k ? new ArrayList<>(ranked.subList(0, k)) : ranked;
+    }
+
+    private void rank(CatalogueItem item, long key, long estimate) {
+        Candidate fresh = new Candidate(item, key, estimate, nextSequence.getAndIncrement());
+        Candidate installed = candidates.compute(key, (k, old) -> {
+            if (old != null) {
+                if (old.estimate >= estimate) {
+                    return old; // A concurrent loan of the same item got there first
+                }
+                byEstimate.remove(old);
+            }
+            return fresh;
+        });
+        if (installed != fresh) {
+            return;
+        }
+        byEstimate.add(fresh);
+        if (candidates.get(key) != fresh) {
+            byEstimate.remove(fresh); // Replaced before it was added
+        }
+        // Scores of other candidates may be stale, but only decide who is dropped
+        while (candidates.size() > capacity) {
+            Candidate weakest = byEstimate.pollFirst();
+            if (weakest == null) {
+                break;
+            }
+            if (candidates.remove(weakest.key, weakest)) {
+                floor = weakest.estimate;
+            }
+        }
+    }
+
+    /**
+     * Returns the sketch counting the given day, clearing it first if it last counted an earlier day
+     */
+    private CountMinSketch sketchFor(long day) {
+        int slot = (int) (day % sketches.length);
+        if (sketchDays.get(slot) != day) {
+            synchronized (sketches) {
+                if (sketchDays.get(slot) < day) {
+                    sketches[slot].clear();
+                    sketchDays.set(slot, day);
+                }
+            }
+        }
+        return sketches[slot];
+    }
+
+    private long estimate(long key, long today, int days) {
+        long total = 0;
+        for (int i = 0; i < Math.min(days, DAYS); i++) {
+            long day = today - i;
+            int slot = (int) (day % sketches.length);
+            if (sketchDays.get(slot) == day) {
+                total += sketches[slot].estimate(key);
+            }
+        }
+        return total;
+    }
+
+    private int genreIndex(CatalogueItem item) {
+        if (item instanceof Book && ((Book) item).getGenre() != null) {
+            return ((Book) item).getGenre().ordinal();
+        }
+        return genreLoans.length - 1;
+    }
+
+    /**
+     * Returns the sketch key of an item: its ISBN if valid, so copies catalogued
+     * twice count together, otherwise its identity
+     */
+    private static long key(CatalogueItem item) {
+        long isbn = Isbn.parse(item.getIsbn());
+        return isbn != Isbn.INVALID ? isbn : -1L - System.identityHashCode(item);
+    }
+}
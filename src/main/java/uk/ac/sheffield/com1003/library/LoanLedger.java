@@ -0,0 +1,239 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record of every loan made by a library, indexed by the name the borrower
+ * had when the loan was recorded, by item and, for loans not yet returned, by due date. Loans recorded here keep
+ * a reference to the ledger so that returning or extending them keeps
+ * the due date order up to date, and each item's count of copies on loan
+ * ({@link CatalogueItem#getCopiesOnLoan()}) in step with its active loans.
+ * The ledger is safe to use from many threads; the per-item indexes are
+ * split into lock stripes so loans of different items rarely contend.
+ */
+public class LoanLedger {
+    private static final int STRIPES = 64;
+
+    private final Map<Long, Loan> byId = new ConcurrentHashMap<>();
+    private final Map<PersonName, List<Loan>> byUser = new ConcurrentHashMap<>();
+    private final StripedIdentityMap<CatalogueItem, ItemLoans> byItem = new StripedIdentityMap<>(STRIPES);
+    private final NavigableMap<Position, Loan> active = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final CirculationListener listener;
+
+    /**
+     * Constructor that takes the listener to tell about returns and extensions of recorded loans
+     * @param listener Listener notified after a loan is returned or extended
+     */
+    LoanLedger(CirculationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Position of an active loan in due date order. Extending a loan moves it
+     * to a new position rather than changing the old one: a removed node can
+     * still be visited by other threads, so its key must never change.
+     */
+    private static final class Position implements Comparable<Position> {
+        private final LocalDateTime dueDate;
+        private final long id;
+
+        private Position(LocalDateTime dueDate, long id) {
+            this.dueDate = dueDate;
+            this.id = id;
+        }
+
+        private Position(Loan loan) {
+            this(loan.getDueDate(), loan.getId());
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int c = dueDate.compareTo(other.dueDate);
+            return c != 0 ? c : Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Loans of a single item, guarded by the stripe lock of the item
+     */
+    private static class ItemLoans {
+        private final List<Loan> all = new ArrayList<>();
+        private final Set<Loan> active = new LinkedHashSet<>();
+    }
+
+    /**
+     * Adds a new loan to the ledger and assigns it an id
+     * @param loan Loan to be recorded
+     */
+    void record(Loan loan) {
+        loan.id = nextId.getAndIncrement();
+        add(loan);
+    }
+
+    /**
+     * Adds a loan recovered from storage to the ledger with the id it was originally given
+     * @param loan Loan to be restored
+     * @param id Id the loan was given when it was first recorded
+     */
+    void restore(Loan loan, long id) {
+        loan.id = id;
+        nextId.accumulateAndGet(id + 1, Math::max);
+        add(loan);
+    }
+
+    private void add(Loan loan) {
+        loan.ledger = this;
+        byId.put(loan.getId(), loan);
+        List<Loan> userLoans = byUser.computeIfAbsent(PersonName.of(loan.getUser()), k -> new ArrayList<>());
+        synchronized (userLoans) {
+            userLoans.add(loan);
+        }
+        boolean isActive = loan.getReturnedDate() == null;
+        byItem.update(loan.getItem(), ItemLoans::new, loans -> {
+            loans.all.add(loan);
+            if (isActive) {
+                loans.active.add(loan);
+            }
+        });
+        if (isActive) {
+            active.put(new Position(loan), loan);
+            loan.getItem().addCopiesOnLoan(1);
+        }
+    }
+
+    void returned(Loan loan) {
+        active.remove(new Position(loan));
+        loan.getItem().addCopiesOnLoan(-1);
+        byItem.update(loan.getItem(), ItemLoans::new, loans -> loans.active.remove(loan));
+        listener.returned(loan);
+    }
+
+    void extended(Loan loan, int days) {
+        boolean wasActive = active.remove(new Position(loan)) != null;
+        loan.setDueDate(loan.getDueDate().plusDays(days));
+        if (wasActive) {
+            active.put(new Position(loan), loan);
+        }
+        listener.extended(loan, days);
+    }
+
+    /**
+     * Returns the loan with the given id
+     * @param id Id assigned to the loan when it was recorded
+     * @return The loan, or null if there is no loan with that id
+     */
+    public Loan getLoan(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Returns every loan made by a user with the current name of the given one, oldest first
+     * @param user The borrower
+     * @return List of loans
+     */
+    public List<Loan> getLoans(Person user) {
+        List<Loan> userLoans = byUser.get(PersonName.of(user));
+        if (userLoans == null) {
+            return new ArrayList<>();
+        }
+        synchronized (userLoans) {
+            return new ArrayList<>(userLoans);
+        }
+    }
+
+    /**
+     * Returns every loan made of the given item, oldest first
+     * @param item The catalogue item
+     * @return List of loans
+     */
+    public List<Loan> getLoans(CatalogueItem item) {
+        List<Loan> result = byItem.read(item, loans -> new ArrayList<>(loans.all));
+        return result == null ? new ArrayList<>() : result;
+    }
+
+    /**
+     * Returns the loans of the given item which have not been returned yet
+     * @param item The catalogue item
+     * @return List of active loans, oldest first
+     */
+    public List<Loan> getActiveLoans(CatalogueItem item) {
+        List<Loan> result = byItem.read(item, loans -> new ArrayList<>(loans.active));
+        return result == null ? new ArrayList<>() : result;
+    }
+
+    /**
+     * Returns the loans not yet returned whose due date is before the given date,
+     * ordered from the earliest due date (the most overdue) to the latest
+     * @param now The date to check due dates against
+     * @return List of overdue loans
+     */
+    public List<Loan> getOverdueLoans(LocalDateTime now) {
+        List<Loan> result = new ArrayList<>();
+        for (Map.Entry<Position, Loan> entry : active.entrySet()) {
+            if (!entry.getKey().dueDate.isBefore(now)) {
+                break;
+            }
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the overdue loans ordered after the given due date and id,
+     * i.e. those that became overdue since a previous call returned a loan
+     * with that due date and id
+     * @param dueDate Due date of the last loan already seen
+     * @param id Id of the last loan already seen
+     * @param now The date to check due dates against
+     * @return List of overdue loans, earliest due date first
+     */
+    List<Loan> getOverdueLoansAfter(LocalDateTime dueDate, long id, LocalDateTime now) {
+        List<Loan> result = new ArrayList<>();
+        for (Map.Entry<Position, Loan> entry : active.tailMap(new Position(dueDate, id), false).entrySet()) {
+            if (!entry.getKey().dueDate.isBefore(now)) {
+                break;
+            }
+            result.add(entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns every loan ever recorded, in the order they were recorded
+     * @return List of loans
+     */
+    List<Loan> getAllLoans() {
+        List<Loan> result = new ArrayList<>(byId.values());
+        result.sort(Comparator.comparingLong(Loan::getId));
+        return result;
+    }
+
+    /**
+     * Returns the number of loans not yet returned
+     * @return Number of active loans
+     */
+    public int activeCount() {
+        return active.size();
+    }
+
+    /**
+     * Returns the number of loans ever recorded
+     * @return Number of loans
+     */
+    public int size() {
+        return byId.size();
+    }
+}
@@ -0,0 +1,27 @@
+package uk.ac.sheffield.com1003.library;
+
+/**
+ * A request to borrow an item, for use with {@link Library#loanItems(java.util.List)}
+ */
+public class LoanRequest {
+    private final String titleOrISBN;
+    private final Person user;
+
+    /**
+     * Constructor that takes the item wanted and who wants it
+     * @param titleOrISBN The title or ISBN of the item to be loaned
+     * @param user Person loaning the item
+     */
+    public LoanRequest(String titleOrISBN, Person user) {
+        this.titleOrISBN = titleOrISBN;
+        this.user = user;
+    }
+
+    public String getTitleOrISBN() {
+        return titleOrISBN;
+    }
+
+    public Person getUser() {
+        return user;
+    }
+}
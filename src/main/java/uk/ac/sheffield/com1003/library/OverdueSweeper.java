@@ -0,0 +1,93 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Reports loans as they become overdue. The sweeper remembers the due date
+ * and id of the last loan it reported, and each sweep only visits the loans
+ * in the ledger's due date order after that position, so its cost depends on
+ * the number of loans that became overdue rather than on the size of the ledger.
+ * Loans extended after being reported move further down the order and are
+ * reported again if they become overdue a second time.
+ */
+public class OverdueSweeper {
+    private final LoanLedger ledger;
+    private final Consumer<Loan> listener;
+    private final Clock clock;
+    private LocalDateTime lastDueDate = LocalDateTime.MIN;
+    private long lastId = Long.MAX_VALUE;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor that takes the ledger to sweep and the listener
+     * to notify of each newly overdue loan, using the system clock
+     * @param ledger Ledger of loans to sweep
+     * @param listener Listener notified of newly overdue loans
+     */
+    public OverdueSweeper(LoanLedger ledger, Consumer<Loan> listener) {
+        this(ledger, listener, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Constructor that takes the ledger to sweep, the listener
+     * to notify of each newly overdue loan and the clock to use
+     * @param ledger Ledger of loans to sweep
+     * @param listener Listener notified of newly overdue loans
+     * @param clock Clock giving the current date and time
+     */
+    public OverdueSweeper(LoanLedger ledger, Consumer<Loan> listener, Clock clock) {
+        this.ledger = ledger;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * Reports every loan that has become overdue since the previous sweep
+     * @return Number of loans reported
+     */
+    public synchronized int sweep() {
+        List<Loan> overdue = ledger.getOverdueLoansAfter(lastDueDate, lastId, LocalDateTime.now(clock));
+        for (Loan loan : overdue) {
+            listener.accept(loan);
+        }
+        if (!overdue.isEmpty()) {
+            Loan last = overdue.get(overdue.size() - 1);
+            lastDueDate = last.getDueDate();
+            lastId = last.getId();
+        }
+        return overdue.size();
+    }
+
+    /**
+     * Starts sweeping on a background thread at a fixed rate
+     * @param period Time between sweeps
+     * @param unit Unit of the period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Sweeper already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sweep, 0, period, unit);
+    }
+
+    /**
+     * Stops the background sweeps started by {@link OverdueSweeper#start(long, TimeUnit)}
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.util.Objects;
+
+/**
+ * The name of a {@link Person} at a point in time. Unlike a person, a name
+ * never changes, so it is safe to use as a map key: renaming a person after
+ * their books or loans were indexed does not lose the index entries.
+ * Names are compared after trimming and collapsing runs of spaces.
+ */
+public final class PersonName {
+    private final String firstName;
+    private final String lastName;
+
+    private PersonName(String firstName, String lastName) {
+        this.firstName = normalise(firstName);
+        this.lastName = normalise(lastName);
+    }
+
+    /**
+     * Returns the normalised name made of the given first and last name
+     * @param firstName First name
+     * @param lastName Last name
+     * @return The name
+     */
+    public static PersonName of(String firstName, String lastName) {
+        return new PersonName(firstName, lastName);
+    }
+
+    /**
+     * Returns the current name of the given person
+     * @param person A person, or null
+     * @return The name, or null if the given person is null
+     */
+    public static PersonName of(Person person) {
+        return person == null ? null : new PersonName(person.getFirstName(), person.getLastName());
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    /**
+     * Returns true if the given person currently has exactly this name
+     * @param person A person
+     * @return True if the first and last name of the person are those of this name
+     */
+    public boolean isNameOf(Person person) {
+        return Objects.equals(firstName, person.getFirstName()) && Objects.equals(lastName, person.getLastName());
+    }
+
+    /**
+     * Returns a string representation of a name
+     *
+     * @return A string representation of a name in
+     * the format "<last name>, <first name>"
+     */
+    @Override
+    public String toString() {
+        return lastName + ", " + firstName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PersonName)) return false;
+        PersonName name = (PersonName) o;
+        return Objects.equals(firstName, name.firstName) && Objects.equals(lastName, name.lastName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(firstName, lastName);
+    }
+
+    private static String normalise(String name) {
+        if (name == null) {
+            return null;
+        }
+        String trimmed = name.trim();
+        if (trimmed.indexOf("  ") < 0 && trimmed.indexOf('\t') < 0) {
+            return trimmed;
+        }
+        return trimmed.replaceAll("\\s+", " ");
+    }
+}
@@ -0,0 +1,84 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one shared {@link Person} per {@link PersonName}, so that the author
+ * of a thousand books or the borrower of a thousand loans imported or restored
+ * by a library is a single object rather than a thousand equal ones. Each
+ * library has its own registry ({@link Library#getPeople()}) and only shares
+ * the people it creates itself, when importing BibTeX or reading a snapshot;
+ * a person passed in by a caller is never replaced. People are held through
+ * weak references: once no book or loan refers to a person, the garbage
+ * collector may reclaim them and the registry drops its entry the next time
+ * it is used. A shared person who is renamed stops being shared under the old name.
+ */
+public class PersonRegistry {
+    private final ConcurrentHashMap<PersonName, Entry> people = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Person> collected = new ReferenceQueue<>();
+
+    /**
+     * Weak reference to a shared person, remembering its name so the entry can be removed once it is collected
+     */
+    private static final class Entry extends WeakReference<Person> {
+        private final PersonName name;
+
+        private Entry(Person person, PersonName name, ReferenceQueue<Person> queue) {
+            super(person, queue);
+            this.name = name;
+        }
+    }
+
+    /**
+     * Returns the shared person with the given name, creating it if needed
+     * @param firstName First name
+     * @param lastName Last name
+     * @return The shared person
+     */
+    public Person intern(String firstName, String lastName) {
+        return intern(PersonName.of(firstName, lastName));
+    }
+
+    /**
+     * Returns the shared person with the given name, creating it if needed
+     * @param name The name
+     * @return The shared person
+     */
+    public Person intern(PersonName name) {
+        expunge();
+        while (true) {
+            Entry entry = people.get(name);
+            Person shared = entry == null ? null : entry.get();
+            if (shared != null && name.isNameOf(shared)) {
+                return shared;
+            }
+            Person created = new Person(name.getFirstName(), name.getLastName());
+            Entry fresh = new Entry(created, name, collected);
+            // A collected or renamed entry is replaced, unless another thread got there first
+            if (entry == null ? people.putIfAbsent(name, fresh) == null : people.replace(name, entry, fresh)) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of people in the registry
+     * @return Number of people not yet collected
+     */
+    public int size() {
+        expunge();
+        return people.size();
+    }
+
+    /**
+     * Removes the entries of people who have been collected
+     */
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) {
+            people.remove(entry.name, entry);
+        }
+    }
+}
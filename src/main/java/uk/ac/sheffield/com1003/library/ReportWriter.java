@@ -0,0 +1,376 @@
+package uk.ac.sheffield.com1003.library;
+
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.Magazine;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Writes catalogue, overdue and receipt reports to any {@link Appendable}.
+ * Each line is built in a buffer that is reused for the whole report and
+ * then handed to the output in one call, so writing a report allocates
+ * little beyond what the output itself needs. The text format is the one
+ * printed by {@link Library#printCatalogue()}, {@link Library#printOverdue()}
+ * and {@link Loan#printReceipt()}; CSV and JSON are meant for exports.
+ * Call {@link ReportWriter#flush()} when done if the output is buffered.
+ */
+public class ReportWriter implements Flushable {
+    /**
+     * Layout of the reports
+     */
+    public enum Format {TEXT, CSV, JSON}
+
+    private static final String RULE = "====================";
+    private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final String LOAN_COLUMNS = "id,user,title,isbn,loan_date,due_date,returned_date";
+
+    private final Appendable out;
+    private final Writer writer;
+    private final Format format;
+    private final String newLine = System.lineSeparator();
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] chars = new char[256];
+    private boolean firstRecord;
+
+    /**
+     * Constructor that takes where to write reports and how to lay them out
+     * @param out Output for the reports; wrap slow outputs in a buffer
+     * @param format Layout of the reports
+     */
+    public ReportWriter(Appendable out, Format format) {
+        this.out = out;
+        this.writer = out instanceof Writer ? (Writer) out : null;
+        this.format = format;
+    }
+
+    /**
+     * Creates a writer of UTF-8 reports to the given channel, through a 64 KB buffer
+     * @param channel Output for the reports
+     * @param format Layout of the reports
+     * @return The report writer
+     */
+    public static ReportWriter forChannel(WritableByteChannel channel, Format format) {
+        return new ReportWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), 1 << 16), format);
+    }
+
+    /**
+     * Writes every item of the catalogue in title order
+     * @param library The library whose catalogue to write
+     * @throws IOException if the output cannot be written
+     */
+    public void writeCatalogue(Library library) throws IOException {
+        if (format == Format.TEXT) {
+            emit(RULE);
+            emit(library.welcome());
+            emit("Catalogue");
+            emit(RULE);
+            writeItems(library.itemsByTitle());
+            emit(RULE);
+        } else {
+            writeItems(library.itemsByTitle());
+        }
+    }
+
+    /**
+     * Writes the given items in the layout of the catalogue report, without its heading
+     * @param items Items to write, e.g. the results of a search
+     * @throws IOException if the output cannot be written
+     */
+    public void writeItems(Iterable<? extends CatalogueItem> items) throws IOException {
+        switch (format) {
+            case TEXT:
+                for (CatalogueItem item : items) {
+                    emit(item.toString());
+                }
+                break;
+            case CSV:
+                emit("type,title,author,isbn,year,genre,copies");
+                for (CatalogueItem item : items) {
+                    Book book = item instanceof Book ? (Book) item : null;
+                    csv(typeOf(item)).append(',');
+                    csv(item.getTitle()).append(',');
+                    csv(book == null ? null : authorOf(book)).append(',');
+                    csv(item.getIsbn()).append(',');
+                    line.append(item.getYear()).append(',');
+                    csv(book == null || book.getGenre() == null ? null : book.getGenre().name()).append(',');
+                    line.append(item.getCopies());
+                    emit();
+                }
+                break;
+            case JSON:
+                startArray();
+                for (CatalogueItem item : items) {
+                    Book book = item instanceof Book ? (Book) item : null;
+                    startRecord();
+                    line.append("{\"type\":");
+                    json(typeOf(item));
+                    line.append(",\"title\":");
+                    json(item.getTitle());
+                    line.append(",\"author\":");
+                    json(book == null ? null : authorOf(book));
+                    line.append(",\"isbn\":");
+                    json(item.getIsbn());
+                    line.append(",\"year\":").append(item.getYear());
+                    line.append(",\"genre\":");
+                    json(book == null || book.getGenre() == null ? null : book.getGenre().name());
+                    line.append(",\"copies\":").append(item.getCopies()).append('}');
+                }
+                endArray();
+                break;
+        }
+    }
+
+    /**
+     * Writes the loans not yet returned whose due date is before the given date,
+     * the most overdue first
+     * @param library The library whose loans to write
+     * @param now The date to check due dates against
+     * @throws IOException if the output cannot be written
+     */
+    public void writeOverdue(Library library, LocalDateTime now) throws IOException {
+        List<Loan> overdue = library.getLoanLedger().getOverdueLoans(now);
+        switch (format) {
+            case TEXT:
+                emit(RULE);
+                emit("Loans Overdue");
+                emit(RULE);
+                if (overdue.isEmpty()) {
+                    emit(RULE);
+                }
+                for (Loan loan : overdue) {
+                    loan.appendTo(line);
+                    emit();
+                    emit(RULE);
+                }
+                break;
+            case CSV:
+                emit(LOAN_COLUMNS);
+                for (Loan loan : overdue) {
+                    csvLoan(loan);
+                }
+                break;
+            case JSON:
+                startArray();
+                for (Loan loan : overdue) {
+                    startRecord();
+                    jsonLoan(loan);
+                }
+                endArray();
+                break;
+        }
+    }
+
+    /**
+     * Writes the receipt of a loan
+     * @param loan The loan
+     * @throws IOException if the output cannot be written
+     */
+    public void writeReceipt(Loan loan) throws IOException {
+        switch (format) {
+            case TEXT:
+                loan.writeReceipt(line);
+                flushLine();
+                break;
+            case CSV:
+                emit(LOAN_COLUMNS);
+                csvLoan(loan);
+                break;
+            case JSON:
+                jsonLoan(loan);
+                emit();
+                break;
+        }
+    }
+
+    /**
+     * Writes an error message, e.g. the body of a failed request
+     * @param message The message
+     * @throws IOException if the output cannot be written
+     */
+    public void writeError(String message) throws IOException {
+        switch (format) {
+            case TEXT:
+                emit("Error: " + message);
+                break;
+            case CSV:
+                emit("error");
+                csv(message);
+                emit();
+                break;
+            case JSON:
+                line.append("{\"error\":");
+                json(message);
+                line.append('}');
+                emit();
+                break;
+        }
+    }
+
+    /**
+     * Flushes the output if it can be flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
+        }
+    }
+
+    private void csvLoan(Loan loan) throws IOException {
+        line.append(loan.getId()).append(',');
+        csv(loan.getUser().getFirstName() + " " + loan.getUser().getLastName()).append(',');
+        csv(loan.getItem().getTitle()).append(',');
+        csv(loan.getItem().getIsbn()).append(',');
+        date(loan.getLoanDate()).append(',');
+        date(loan.getDueDate()).append(',');
+        date(loan.getReturnedDate());
+        emit();
+    }
+
+    private void jsonLoan(Loan loan) {
+        line.append("{\"id\":").append(loan.getId());
+        line.append(",\"user\":");
+        json(loan.getUser().getFirstName() + " " + loan.getUser().getLastName());
+        line.append(",\"title\":");
+        json(loan.getItem().getTitle());
+        line.append(",\"isbn\":");
+        json(loan.getItem().getIsbn());
+        line.append(",\"loan_date\":");
+        jsonDate(loan.getLoanDate());
+        line.append(",\"due_date\":");
+        jsonDate(loan.getDueDate());
+        line.append(",\"returned_date\":");
+        jsonDate(loan.getReturnedDate());
+        line.append('}');
+    }
+
+    private static String typeOf(CatalogueItem item) {
+        return item instanceof Book ? "Book" : item instanceof Magazine ? "Magazine" : "Item";
+    }
+
+    private static String authorOf(Book book) {
+        Person author = book.getAuthor();
+        return author == null ? null : author.getFirstName() + " " + author.getLastName();
+    }
+
+    private StringBuilder csv(String value) {
+        if (value == null) {
+            return line;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return line.append(value);
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+
+    private void json(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    private StringBuilder date(LocalDateTime date) {
+        if (date != null) {
+            ISO.formatTo(date, line);
+        }
+        return line;
+    }
+
+    private void jsonDate(LocalDateTime date) {
+        if (date == null) {
+            line.append("null");
+        } else {
+            line.append('"');
+            ISO.formatTo(date, line);
+            line.append('"');
+        }
+    }
+
+    private void startArray() throws IOException {
+        emit("[");
+        firstRecord = true;
+    }
+
+    /**
+     * Ends the previous record of an array, if any, so that records are
+     * separated by commas without knowing which one is last
+     */
+    private void startRecord() throws IOException {
+        if (!firstRecord) {
+            line.append(',');
+            emit();
+        }
+        firstRecord = false;
+    }
+
+    private void endArray() throws IOException {
+        if (!firstRecord) {
+            emit();
+        }
+        emit("]");
+    }
+
+    private void emit(String text) throws IOException {
+        line.append(text);
+        emit();
+    }
+
+    private void emit() throws IOException {
+        line.append(newLine);
+        flushLine();
+    }
+
+    /**
+     * Hands the buffered text to the output and clears the buffer. Writers are
+     * given a char array, as appending a CharSequence to a Writer copies it into a String.
+     */
+    private void flushLine() throws IOException {
+        int length = line.length();
+        if (writer != null) {
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            line.getChars(0, length, chars, 0);
+            writer.write(chars, 0, length);
+        } else {
+            out.append(line);
+        }
+        line.setLength(0);
+    }
+}
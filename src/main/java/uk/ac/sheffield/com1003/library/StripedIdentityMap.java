@@ -0,0 +1,76 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Map keyed by object identity, split into stripes that are each guarded
+ * by their own lock. Threads working on keys in different stripes never
+ * contend with each other.
+ *
+ * @param <K> Type of keys
+ * @param <V> Type of values
+ */
+class StripedIdentityMap<K, V> {
+    private final Map<K, V>[] stripes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    StripedIdentityMap(int stripeCount) {
+        int n = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new Map[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new IdentityHashMap<>();
+        }
+    }
+
+    /**
+     * Returns the lock guarding the stripe of the given key
+     * @param key The key
+     * @return Lock object of the stripe
+     */
+    Object lockFor(K key) {
+        return stripe(key);
+    }
+
+    /**
+     * Applies the given action to the value of the key, creating it first if absent,
+     * while holding the stripe lock
+     */
+    void update(K key, Supplier<V> factory, Consumer<V> action) {
+        Map<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            action.accept(stripe.computeIfAbsent(key, k -> factory.get()));
+        }
+    }
+
+    /**
+     * Applies the given function to the value of the key while holding the stripe lock
+     * @return Result of the function, or null if the key is absent
+     */
+    <R> R read(K key, Function<V, R> reader) {
+        Map<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            V value = stripe.get(key);
+            return value == null ? null : reader.apply(value);
+        }
+    }
+
+    /**
+     * Removes the given key
+     * @return The value removed, or null if the key was absent
+     */
+    V remove(K key) {
+        Map<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    private Map<K, V> stripe(K key) {
+        int h = System.identityHashCode(key);
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+}
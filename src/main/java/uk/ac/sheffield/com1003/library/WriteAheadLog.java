@@ -0,0 +1,296 @@
+package uk.ac.sheffield.com1003.library;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of records split into numbered segment files
+ * ({@code wal-<segment>.log}) in a directory. Records are written and
+ * forced to disk by a background thread in batches, so many threads
+ * appending at once share a single fsync (group commit). When the log
+ * is durable, {@link WriteAheadLog#append(byte[])} waits until the record
+ * is on disk; otherwise it returns as soon as the record is queued.
+ * Each record is stored with its length and a CRC32 checksum, so a record
+ * torn by a crash is detected and ignored when the log is read back.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int MAX_RECORD_SIZE = 1 << 24;
+
+    private final Path directory;
+    private final boolean durable;
+    private final Thread flusher;
+    private FileChannel channel;
+    private long segment;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    private long appended;
+    private long flushed;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * Opens a log in the given directory. Records are appended to a new segment
+     * numbered after the highest existing one.
+     * @param directory Directory holding the segment files
+     * @param durable Whether appends wait until their record has been forced to disk
+     * @throws IOException if the directory or segment cannot be created
+     */
+    public WriteAheadLog(Path directory, boolean durable) throws IOException {
+        this.directory = directory;
+        this.durable = durable;
+        Files.createDirectories(directory);
+        List<Long> existing = segments(directory);
+        this.segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        this.channel = openSegment(segment);
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Appends a record to the log
+     * @param record Bytes of the record
+     * @return Sequence number of the record within this log
+     * @throws UncheckedIOException if the log could not be written
+     */
+    public synchronized long append(byte[] record) {
+        if (closed) {
+            throw new IllegalStateException("Log is closed");
+        }
+        checkFailure();
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        writeInt(pending, record.length);
+        writeInt(pending, (int) crc.getValue());
+        pending.write(record, 0, record.length);
+        long sequence = ++appended;
+        notifyAll();
+        if (durable) {
+            awaitFlushed(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * Waits until every record appended so far has been forced to disk
+     */
+    public synchronized void sync() {
+        awaitAllFlushed();
+    }
+
+    /**
+     * Seals the current segment and starts appending to a new one
+     * @return Number of the sealed segment; it and all earlier segments are complete
+     * @throws IOException if the new segment cannot be created
+     */
+    public synchronized long rotate() throws IOException {
+        awaitAllFlushed();
+        channel.close();
+        long sealed = segment;
+        segment++;
+        channel = openSegment(segment);
+        return sealed;
+    }
+
+    /**
+     * Returns the number of the segment records are currently appended to
+     * @return Segment number
+     */
+    public synchronized long currentSegment() {
+        return segment;
+    }
+
+    /**
+     * Flushes the remaining records and closes the log
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            awaitAllFlushed();
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void awaitFlushed(long sequence) {
+        boolean interrupted = false;
+        while (flushed < sequence && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Waits until the flusher is idle with nothing pending, including records appended while waiting
+     */
+    private void awaitAllFlushed() {
+        while (flushed < appended) {
+            awaitFlushed(appended);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long sequence;
+            FileChannel target;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = batch;
+                sequence = appended;
+                target = channel;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                batch.reset();
+                flushed = sequence;
+                notifyAll();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentPath(directory, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns the path of the given segment
+     * @param directory Directory of the log
+     * @param number Segment number
+     * @return Path of the segment file
+     */
+    public static Path segmentPath(Path directory, long number) {
+        return directory.resolve(PREFIX + number + SUFFIX);
+    }
+
+    /**
+     * Lists the segments in the given directory
+     * @param directory Directory of the log
+     * @return Segment numbers in ascending order
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Long> segments(Path directory) throws IOException {
+        List<Long> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            result.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                        } catch (NumberFormatException e) {
+                            // Not a segment
+                        }
+                    });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Reads the records of a segment. Reading stops at the first incomplete
+     * or corrupted record, which is what a crash during a write leaves behind.
+     * @param segment Path of the segment file
+     * @return The records in the order they were appended
+     * @throws IOException if the file cannot be read
+     */
+    public static List<byte[]> read(Path segment) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] record;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
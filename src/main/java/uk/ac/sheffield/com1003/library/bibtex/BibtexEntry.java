@@ -0,0 +1,66 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single BibTeX entry, e.g. {@code @book{Lee60, title = {To Kill a Mockingbird}, ...}}.
+ * Field names are stored in lower case; values have their enclosing braces
+ * or quotes removed but keep any nested braces.
+ */
+public class BibtexEntry {
+    private final String type;
+    private final String key;
+    private final Map<String, String> fields;
+    private final int line;
+
+    public BibtexEntry(String type, String key, Map<String, String> fields, int line) {
+        this.type = type;
+        this.key = key;
+        this.fields = Collections.unmodifiableMap(new LinkedHashMap<>(fields));
+        this.line = line;
+    }
+
+    /**
+     * Returns the entry type in lower case, e.g. "book"
+     * @return Entry type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns the citation key of the entry, e.g. "Lee60"
+     * @return Citation key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value of the given field
+     * @param name Field name, case insensitive
+     * @return Field value, or null if the entry does not have the field
+     */
+    public String getField(String name) {
+        return fields.get(name.toLowerCase());
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Returns the line of the input the entry starts on
+     * @return Line number, starting from 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + type + "{" + key + ", " + fields + "}";
+    }
+}
@@ -0,0 +1,139 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+import uk.ac.sheffield.com1003.library.Library;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streams the entries of a BibTeX file into a library. Entries are parsed one
+ * at a time and added to the catalogue in batches, so memory use does not grow
+ * with the size of the file. Each entry adds a book with a single copy
+ * and, as BibTeX has no genre, {@link Book.Genre#UNSPECIFIED}; books by the
+ * same author share the person in the library's {@link Library#getPeople() registry};
+ * entries that are malformed or lack a title, author, ISBN or year are
+ * counted as failed, reported to the error handler and skipped.
+ */
+public class BibtexImporter {
+    /**
+     * Number of books added to the catalogue at a time unless otherwise specified
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final Library library;
+    private final int batchSize;
+    private final Consumer<ImportError> errorHandler;
+    private final boolean mergeDuplicates;
+
+    public BibtexImporter(Library library) {
+        this(library, DEFAULT_BATCH_SIZE);
+    }
+
+    public BibtexImporter(Library library, int batchSize) {
+        this(library, batchSize, error -> { });
+    }
+
+    /**
+     * Constructor that takes the library to import into, the number of books
+     * to add at a time and the handler to report failed entries to
+     * @param library Library to import into
+     * @param batchSize Number of books added to the catalogue at a time
+     * @param errorHandler Handler notified of each entry that cannot be imported
+     */
+    public BibtexImporter(Library library, int batchSize, Consumer<ImportError> errorHandler) {
+        this(library, batchSize, errorHandler, false);
+    }
+
+    /**
+     * Constructor that also chooses whether entries for books already in the
+     * catalogue, or earlier in the file, add a copy to the existing book
+     * instead of a book of their own; see {@link Library#mergeItems}
+     * @param library Library to import into
+     * @param batchSize Number of books added to the catalogue at a time
+     * @param errorHandler Handler notified of each entry that cannot be imported
+     * @param mergeDuplicates Whether to merge duplicate books
+     */
+    public BibtexImporter(Library library, int batchSize, Consumer<ImportError> errorHandler, boolean mergeDuplicates) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.library = library;
+        this.batchSize = batchSize;
+        this.errorHandler = errorHandler;
+        this.mergeDuplicates = mergeDuplicates;
+    }
+
+    /**
+     * Imports every entry of the given UTF-8 file
+     * @param file Path of the .bib file
+     * @return Report of the import
+     * @throws IOException if the file cannot be read
+     */
+    public ImportReport importFile(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    /**
+     * Imports every entry read from the given reader
+     * @param reader Source of BibTeX text
+     * @return Report of the import
+     * @throws IOException if the reader fails
+     */
+    public ImportReport importFrom(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        long read = 0;
+        long added = 0;
+        long failed = 0;
+        List<CatalogueItem> batch = new ArrayList<>(batchSize);
+        BibtexReader entries = new BibtexReader(reader);
+        while (true) {
+            Book book;
+            BibtexEntry entry = null;
+            try {
+                entry = entries.next();
+                if (entry == null) {
+                    break;
+                }
+                read++;
+                book = Book.fromBibtex(entry, library.getPeople());
+            } catch (ParseException e) {
+                if (entry == null) {
+                    read++;
+                }
+                failed++;
+                errorHandler.accept(new ImportError(entry == null ? e.getErrorOffset() : entry.getLine(), e.getMessage()));
+                continue;
+            } catch (IllegalArgumentException e) {
+                failed++;
+                errorHandler.accept(new ImportError(entry.getLine(), e.getMessage()));
+                continue;
+            }
+            if (book.getGenre() == null) {
+                book.setGenre(Book.Genre.UNSPECIFIED);
+            }
+            book.addCopy();
+            batch.add(book);
+            if (batch.size() == batchSize) {
+                added += addBatch(batch);
+                batch.clear();
+            }
+        }
+        added += addBatch(batch);
+        return new ImportReport(read, added, failed, System.nanoTime() - start);
+    }
+
+    private int addBatch(List<CatalogueItem> batch) {
+        return mergeDuplicates ? library.mergeItems(batch) : library.addItems(batch);
+    }
+}
@@ -0,0 +1,247 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads BibTeX entries one at a time from a character stream in a single pass.
+ * Only the entry being parsed is held in memory, so files of any size can be read.
+ * Field values may be enclosed in braces (which may nest), in double quotes,
+ * or be bare words and numbers; parts joined with {@code #} are concatenated.
+ * {@code @comment}, {@code @preamble} and {@code @string} entries are skipped.
+ * After a malformed entry the reader skips ahead to the next {@code @}, so
+ * one bad entry does not prevent reading the rest of the input. An {@code @}
+ * at the start of a line always starts a new entry, so an entry with
+ * unbalanced braces cannot swallow the entries after it.
+ */
+public class BibtexReader implements Closeable {
+    private static final int EOF = -1;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private int line = 1;
+    private boolean atLineStart = true;
+    private boolean lastAtLineStart;
+    private final StringBuilder text = new StringBuilder();
+
+    public BibtexReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next entry
+     * @return The next entry, or null at the end of the input
+     * @throws ParseException if the next entry is malformed; the error offset is its line number
+     * @throws IOException if the input cannot be read
+     */
+    public BibtexEntry next() throws ParseException, IOException {
+        while (true) {
+            int c;
+            do {
+                c = read();
+                if (c == EOF) {
+                    return null;
+                }
+            } while (c != '@');
+
+            int startLine = line;
+            String type = readIdentifier().toLowerCase();
+            skipWhitespace();
+            int open = read();
+            if (open != '{' && open != '(') {
+                throw new ParseException("Expected '{' after @" + type + " on line " + startLine, startLine);
+            }
+            char close = open == '{' ? '}' : ')';
+            if (type.equals("comment") || type.equals("preamble") || type.equals("string")) {
+                skipBalanced(close, startLine);
+                continue;
+            }
+            return readEntry(type, close, startLine);
+        }
+    }
+
+    private BibtexEntry readEntry(String type, char close, int startLine) throws ParseException, IOException {
+        skipWhitespace();
+        text.setLength(0);
+        int c;
+        while ((c = read()) != ',' && c != close) {
+            if (c == EOF || isEntryStart(c)) {
+                throw new ParseException("Unterminated entry starting on line " + startLine, startLine);
+            }
+            text.append((char) c);
+        }
+        String key = text.toString().trim();
+        Map<String, String> fields = new LinkedHashMap<>();
+        while (c == ',') {
+            skipWhitespace();
+            if (peek() == close) {
+                read();
+                break;
+            }
+            String name = readIdentifier().toLowerCase();
+            if (name.isEmpty()) {
+                throw new ParseException("Expected field name on line " + line, startLine);
+            }
+            skipWhitespace();
+            if (read() != '=') {
+                throw new ParseException("Expected '=' after field " + name + " on line " + line, startLine);
+            }
+            fields.put(name, readValue(startLine));
+            skipWhitespace();
+            c = read();
+            if (c != ',' && c != close) {
+                throw new ParseException("Expected ',' or '" + close + "' after field " + name + " on line " + line, startLine);
+            }
+        }
+        return new BibtexEntry(type, key, fields, startLine);
+    }
+
+    private String readValue(int startLine) throws ParseException, IOException {
+        text.setLength(0);
+        while (true) {
+            skipWhitespace();
+            int c = read();
+            if (c == '{') {
+                readBraced(startLine);
+            } else if (c == '"') {
+                readQuoted(startLine);
+            } else if (isIdentifierChar(c)) {
+                text.append((char) c);
+                while (isIdentifierChar(peek())) {
+                    text.append((char) read());
+                }
+            } else {
+                throw new ParseException("Expected field value on line " + line, startLine);
+            }
+            skipWhitespace();
+            if (peek() != '#') {
+                return text.toString().trim();
+            }
+            read();
+        }
+    }
+
+    private void readBraced(int startLine) throws ParseException, IOException {
+        int depth = 1;
+        while (true) {
+            int c = read();
+            if (c == EOF || isEntryStart(c)) {
+                throw new ParseException("Unbalanced braces in entry starting on line " + startLine, startLine);
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return;
+            }
+            text.append((char) c);
+        }
+    }
+
+    private void readQuoted(int startLine) throws ParseException, IOException {
+        int depth = 0;
+        while (true) {
+            int c = read();
+            if (c == EOF || isEntryStart(c)) {
+                throw new ParseException("Unterminated string in entry starting on line " + startLine, startLine);
+            }
+            if (c == '"' && depth == 0) {
+                return;
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            }
+            text.append((char) c);
+        }
+    }
+
+    private void skipBalanced(char close, int startLine) throws ParseException, IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            if (c == EOF || isEntryStart(c)) {
+                throw new ParseException("Unterminated entry starting on line " + startLine, startLine);
+            }
+            if (c == '{' || c == '(' && close == ')') {
+                depth++;
+            } else if (c == '}' || c == ')' && close == ')') {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the character just read is an '@' at the start of a line,
+     * and if so leaves it unread so the next call to {@link BibtexReader#next()} starts there
+     */
+    private boolean isEntryStart(int c) {
+        if (c != '@' || !lastAtLineStart) {
+            return false;
+        }
+        position--;
+        return true;
+    }
+
+    private String readIdentifier() throws IOException {
+        skipWhitespace();
+        text.setLength(0);
+        while (isIdentifierChar(peek())) {
+            text.append((char) read());
+        }
+        return text.toString();
+    }
+
+    private static boolean isIdentifierChar(int c) {
+        return c != EOF && (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == ':' || c == '.' || c == '+' || c == '/');
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (Character.isWhitespace(peek())) {
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        char c = buffer[position++];
+        lastAtLineStart = atLineStart;
+        if (c == '\n') {
+            line++;
+            atLineStart = true;
+        } else if (!Character.isWhitespace(c)) {
+            atLineStart = false;
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
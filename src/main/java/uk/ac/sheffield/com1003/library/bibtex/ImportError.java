@@ -0,0 +1,36 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+/**
+ * An entry that could not be imported, with the line it starts on and the reason.
+ */
+public class ImportError {
+    private final int line;
+    private final String message;
+
+    public ImportError(int line, String message) {
+        this.line = line;
+        this.message = message;
+    }
+
+    /**
+     * Returns the line of the input the failed entry starts on
+     * @return Line number, starting from 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns a string representation of the error
+     *
+     * @return A string representation of the error in the format "Line <line>: <message>"
+     */
+    @Override
+    public String toString() {
+        return "Line " + line + ": " + message;
+    }
+}
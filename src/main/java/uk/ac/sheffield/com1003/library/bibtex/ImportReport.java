@@ -0,0 +1,58 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+/**
+ * Summary of a BibTeX import: how many entries were read, added and rejected, and how fast.
+ */
+public class ImportReport {
+    private final long entriesRead;
+    private final long itemsAdded;
+    private final long entriesFailed;
+    private final long elapsedNanos;
+
+    public ImportReport(long entriesRead, long itemsAdded, long entriesFailed, long elapsedNanos) {
+        this.entriesRead = entriesRead;
+        this.itemsAdded = itemsAdded;
+        this.entriesFailed = entriesFailed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of entries read, including those that failed to import
+     * @return Number of entries
+     */
+    public long getEntriesRead() {
+        return entriesRead;
+    }
+
+    public long getItemsAdded() {
+        return itemsAdded;
+    }
+
+    public long getEntriesFailed() {
+        return entriesFailed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the import throughput
+     * @return Entries read per second
+     */
+    public double getEntriesPerSecond() {
+        return elapsedNanos == 0 ? 0 : entriesRead * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Returns a string representation of the report
+     *
+     * @return A string representation of the report in the format
+     * "Imported <items added> of <entries read> entries (<failed> failed) in <seconds>s (<rate> entries/s)"
+     */
+    @Override
+    public String toString() {
+        return String.format("Imported %d of %d entries (%d failed) in %.3fs (%.0f entries/s)",
+                itemsAdded, entriesRead, entriesFailed, elapsedNanos / 1e9, getEntriesPerSecond());
+    }
+}
@@ -0,0 +1,204 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+import uk.ac.sheffield.com1003.library.Library;
+import uk.ac.sheffield.com1003.library.PersonRegistry;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.Isbn;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Imports a BibTeX file using all the cores of a {@link ForkJoinPool}. The file is
+ * memory-mapped and split on entry boundaries (an {@code @} at the start of a line)
+ * into chunks that are parsed in parallel. Books with the same ISBN are merged into
+ * one item whose copies count the entries, and the result is added to the library
+ * with a single call to {@link Library#mergeItems}, which also adds copies to books
+ * already in the catalogue. Books by the same author share the person in the
+ * library's {@link Library#getPeople() registry}. Entries that cannot be imported are reported to the
+ * error handler, in file order, instead of aborting the import.
+ */
+public class ParallelBibtexImporter {
+    /**
+     * Chunks smaller than this many bytes are parsed without being split further
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    private final Library library;
+    private final ForkJoinPool pool;
+    private final Consumer<ImportError> errorHandler;
+
+    public ParallelBibtexImporter(Library library) {
+        this(library, ForkJoinPool.commonPool(), error -> { });
+    }
+
+    /**
+     * Constructor that takes the library to import into, the pool to parse
+     * chunks on and the handler to report failed entries to
+     * @param library Library to import into
+     * @param pool Pool the chunks are parsed on
+     * @param errorHandler Handler notified of each entry that cannot be imported
+     */
+    public ParallelBibtexImporter(Library library, ForkJoinPool pool, Consumer<ImportError> errorHandler) {
+        this.library = library;
+        this.pool = pool;
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Imports every entry of the given UTF-8 file
+     * @param file Path of the .bib file, at most 2GB
+     * @return Report of the import
+     * @throws IOException if the file cannot be read or is too large to map
+     */
+    public ImportReport importFile(Path file) throws IOException {
+        long start = System.nanoTime();
+        ChunkResult result;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large for a parallel import: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            result = pool.invoke(new ParseTask(buffer, 0, buffer.limit(), library.getPeople()));
+        }
+        for (ImportError error : result.errors) {
+            errorHandler.accept(error);
+        }
+        int added = library.mergeItems(result.books.values());
+        return new ImportReport(result.entries, added, result.errors.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Books, errors and line count of a chunk of the file
+     */
+    private static class ChunkResult {
+        private final Map<String, Book> books = new LinkedHashMap<>();
+        private final List<ImportError> errors = new ArrayList<>();
+        private long entries;
+        private int lines;
+
+        private void add(Book book) {
+            Book existing = books.putIfAbsent(key(book.getIsbn()), book);
+            if (existing != null) {
+                existing.addCopies(book.getCopies());
+            }
+        }
+
+        /**
+         * Appends the result of the chunk following this one
+         */
+        private ChunkResult merge(ChunkResult next) {
+            for (Book book : next.books.values()) {
+                add(book);
+            }
+            for (ImportError error : next.errors) {
+                errors.add(new ImportError(error.getLine() + lines, error.getMessage()));
+            }
+            entries += next.entries;
+            lines += next.lines;
+            return this;
+        }
+
+        /**
+         * Returns the 13-digit form of a valid ISBN, so hyphenated and ISBN-10
+         * entries of the same book are merged, or the text itself
+         */
+        private static String key(String isbn) {
+            long parsed = Isbn.parse(isbn);
+            return parsed != Isbn.INVALID ? Isbn.format(parsed) : isbn;
+        }
+    }
+
+    private static class ParseTask extends RecursiveTask<ChunkResult> {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+        private final PersonRegistry people;
+
+        private ParseTask(ByteBuffer buffer, int start, int end, PersonRegistry people) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+            this.people = people;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            if (end - start > MIN_CHUNK_SIZE) {
+                int split = nextEntryStart(buffer, start + (end - start) / 2, end);
+                if (split < end) {
+                    ParseTask right = new ParseTask(buffer, split, end, people);
+                    right.fork();
+                    ChunkResult left = new ParseTask(buffer, start, split, people).compute();
+                    return left.merge(right.join());
+                }
+            }
+            return parse();
+        }
+
+        private ChunkResult parse() {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(end).position(start);
+            String text = StandardCharsets.UTF_8.decode(slice).toString();
+            ChunkResult result = new ChunkResult();
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    result.lines++;
+                }
+            }
+            BibtexReader reader = new BibtexReader(new StringReader(text));
+            while (true) {
+                BibtexEntry entry = null;
+                try {
+                    entry = reader.next();
+                    if (entry == null) {
+                        return result;
+                    }
+                    result.entries++;
+                    Book book = Book.fromBibtex(entry, people);
+                    if (book.getGenre() == null) {
+                        book.setGenre(Book.Genre.UNSPECIFIED);
+                    }
+                    book.addCopy();
+                    result.add(book);
+                } catch (ParseException e) {
+                    if (entry == null) {
+                        result.entries++;
+                    }
+                    result.errors.add(new ImportError(entry == null ? e.getErrorOffset() : entry.getLine(), e.getMessage()));
+                } catch (IllegalArgumentException e) {
+                    result.errors.add(new ImportError(entry.getLine(), e.getMessage()));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e); // Reading from a string cannot fail
+                }
+            }
+        }
+
+        /**
+         * Finds the first '@' at the start of a line at or after the given position
+         * @return Position of the '@', or end if there is none
+         */
+        private static int nextEntryStart(ByteBuffer buffer, int from, int end) {
+            for (int i = Math.max(from, 1); i < end; i++) {
+                if (buffer.get(i) == '@' && buffer.get(i - 1) == '\n') {
+                    return i;
+                }
+            }
+            return end;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+import uk.ac.sheffield.com1003.library.PersonName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The books of a {@link CatalogueIndex} grouped by author, so listing every
+ * book by an author is a single lookup rather than a scan of the catalogue.
+ * Each book is remembered under the name its author had when it was indexed,
+ * so renaming a {@link Person} afterwards does not lose the book, and is
+ * re-indexed when its author is replaced. Books without an author are not indexed.
+ * Updates and lookups share one lock; a lookup holds it only to copy the list
+ * of books, and adding a book to an author's list does not copy the list.
+ */
+public class AuthorIndex implements CatalogueListener {
+    private final Map<PersonName, List<Book>> byAuthor = new HashMap<>();
+    private final Map<Book, PersonName> authors = new IdentityHashMap<>();
+
+    @Override
+    public synchronized void itemAdded(CatalogueItem item) {
+        if (item instanceof Book && !authors.containsKey(item)) {
+            index((Book) item);
+        }
+    }
+
+    @Override
+    public synchronized void itemRemoved(CatalogueItem item) {
+        if (item instanceof Book) {
+            unindex((Book) item);
+        }
+    }
+
+    @Override
+    public void titleChanged(CatalogueItem item, String oldTitle) {
+    }
+
+    @Override
+    public synchronized void authorChanged(Book book, Person oldAuthor) {
+        if (unindex(book)) {
+            index(book);
+        }
+    }
+
+    /**
+     * Returns the books by an author with the current name of the given one, in the order they were indexed
+     * @param author The author
+     * @return List of books
+     */
+    public synchronized List<Book> findByAuthor(Person author) {
+        List<Book> books = author == null ? null : byAuthor.get(PersonName.of(author));
+        return books == null ? new ArrayList<>() : new ArrayList<>(books);
+    }
+
+    private void index(Book book) {
+        PersonName author = PersonName.of(book.getAuthor());
+        if (author == null) {
+            return;
+        }
+        authors.put(book, author);
+        byAuthor.computeIfAbsent(author, k -> new ArrayList<>()).add(book);
+    }
+
+    private boolean unindex(Book book) {
+        if (!authors.containsKey(book)) {
+            return false;
+        }
+        PersonName author = authors.remove(book);
+        if (author != null) {
+            byAuthor.computeIfPresent(author, (k, books) -> {
+                books.removeIf(other -> other == book);
+                return books.isEmpty() ? null : books;
+            });
+        }
+        return true;
+    }
+}
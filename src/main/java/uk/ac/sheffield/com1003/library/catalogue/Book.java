@@ -1,6 +1,13 @@
 package uk.ac.sheffield.com1003.library.catalogue;
 
 import uk.ac.sheffield.com1003.library.Person;
+import uk.ac.sheffield.com1003.library.PersonRegistry;
+import uk.ac.sheffield.com1003.library.bibtex.BibtexEntry;
+import uk.ac.sheffield.com1003.library.bibtex.BibtexReader;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.text.ParseException;
 import java.util.*;
 
@@ -8,43 +15,37 @@ public class Book extends CatalogueItem {
 
     public enum Genre {UNSPECIFIED, NONFICTION};
     private Person author;
-    private String isbn;
-    private int year;
     private Genre genre;
+    private volatile MatchKey matchKey;
 
     public Book(String title) {
-        super(title);
+        super(title, 0, 0, null);
     }
     public Book(String title, Person author) {
-        super(title);
+        super(title, 0, 0, null);
         this.author = author;
     }
 
     public Book(String title, Person author, String isbn) {
-        super(title);
+        super(title, 0, 0, isbn);
         this.author = author;
-        this.isbn = isbn;
     }
 
     public Book(String title, Person author, String isbn, int year) {
-        super(title, year);
+        super(title, year, 0, isbn);
         this.author = author;
-        this.isbn = isbn;
     }
 
     public Book(String title, Person author, String isbn, int year, Genre genre) {
-        super(title, year);
+        super(title, year, 0, isbn);
         this.author = author;
-        this.isbn = isbn;
         this.genre = genre;
     }
 
     public Book(String title, Person author, String isbn, int year, Genre genre, int nCopies) throws IllegalArgumentException {
-        super(title, year);
+        super(title, year, nCopies, isbn);
         this.author = author;
-        this.isbn = isbn;
         this.genre = genre;
-        this.setCopies(nCopies);
     }
 
     public Person getAuthor() {
@@ -52,23 +53,11 @@ public class Book extends CatalogueItem {
     }
 
     public void setAuthor(Person person) {
+        Person oldAuthor = this.author;
         this.author = person;
-    }
-
-    public String getIsbn() {
-        return isbn;
-    }
-
-    public void setIsbn(String isbn) {
-        this.isbn = isbn;
-    }
-
-    public int getYear() {
-        return year;
-    }
-
-    public void setYear(int year) {
-        this.year = year;
+        if (index != null) {
+            index.authorChanged(this, oldAuthor);
+        }
     }
 
     public Genre getGenre() {
@@ -79,27 +68,80 @@ public class Book extends CatalogueItem {
         this.genre = genre;
     }
 
+    /**
+     * Returns the key deciding which books are the same work; see {@link MatchKey}.
+     * The key is cached until the title or any part of the author's name changes.
+     * @return The match key
+     */
+    public MatchKey getMatchKey() {
+        String title = getTitle();
+        Person author = getAuthor();
+        MatchKey key = matchKey;
+        if (key == null || !key.isFor(title, author)) {
+            key = MatchKey.of(title, author);
+            matchKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * Two books are equal if they have the same {@link MatchKey}: the same
+     * title and author once case, punctuation and spacing are ignored, and
+     * only the first word of the author's first name is compared
+     */
     @Override
     public boolean equals(Object other) {
         if (this == other) return true;
-        Book book = (Book) other;
-        // Check if titles are equal or one is a prefix of the other
-        if (!getTitle().startsWith(book.getTitle()) && !book.getTitle().startsWith(getTitle())) return false;
-        // Check if authors' first names are the same
-        String[] thisAuthorNames = author.getFirstName().split(" ");
-        String[] otherAuthorNames = book.author.getFirstName().split(" ");
-        if (!thisAuthorNames[0].equals(otherAuthorNames[0])) return false;
-        // Check if authors' last names are the same
-        if (!author.getLastName().equals(book.author.getLastName())) return false;
-        return true;
+        if (!(other instanceof Book)) return false;
+        return getMatchKey().equals(((Book) other).getMatchKey());
     }
 
+    /**
+     * Creates a book from the first entry of the given BibTeX text
+     * @param bibtex BibTeX text containing a book entry with title, author, isbn and year fields
+     * @return The book described by the entry
+     * @throws ParseException if the entry is malformed or the year or author cannot be parsed
+     * @throws IllegalArgumentException if there is no entry or a required field is missing
+     */
     public static Book fromBibtex(String bibtex) throws ParseException {
-        // Extracting necessary fields from the Bibtex entry
-        String title = extractField(bibtex, "title");
-        String authorName = extractField(bibtex, "author");
-        String isbn = extractField(bibtex, "isbn");
-        String yearStr = extractField(bibtex, "year");
+        BibtexEntry entry;
+        try (BibtexReader reader = new BibtexReader(new StringReader(bibtex))) {
+            entry = reader.next();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Reading from a string cannot fail
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("Invalid BibTex entry");
+        }
+        return fromBibtex(entry);
+    }
+
+    /**
+     * Creates a book from a parsed BibTeX entry. Only the first author is kept;
+     * names may be given as "First Last" or "Last, First".
+     * @param entry Entry with title, author, isbn and year fields
+     * @return The book described by the entry
+     * @throws ParseException if the year or author cannot be parsed
+     * @throws IllegalArgumentException if a required field is missing
+     */
+    public static Book fromBibtex(BibtexEntry entry) throws ParseException {
+        return fromBibtex(entry, null);
+    }
+
+    /**
+     * Creates a book from a parsed BibTeX entry, taking its author from the
+     * given registry so that books by the same author share one person
+     * @param entry Entry with title, author, isbn and year fields
+     * @param people Registry to intern the author in, or null to create a new person
+     * @return The book described by the entry
+     * @throws ParseException if the year or author cannot be parsed
+     * @throws IllegalArgumentException if a required field is missing
+     */
+    public static Book fromBibtex(BibtexEntry entry, PersonRegistry people) throws ParseException {
+        String title = entry.getField("title");
+        String authorName = entry.getField("author");
+        String isbn = entry.getField("isbn");
+        String yearStr = entry.getField("year");
 
         //  Validating extracted fields
         if (title == null || authorName == null || isbn == null || yearStr == null) {
@@ -111,59 +153,35 @@ public class Book extends CatalogueItem {
         try {
             year = Integer.parseInt(yearStr);
         } catch (NumberFormatException e) {
-            throw new ParseException("Invalid year format in BibTex entry", 0);
-        }
-
-        // Extract author's first name and last name
-        String[] names = authorName.split(" ");
-        if (names.length != 2) {
-            throw new ParseException("Invalid author name format in BibTex entry", 0);
+            throw new ParseException("Invalid year format in BibTex entry", entry.getLine());
         }
-        Person author = new Person(names[0], names[1]);
 
         // Create and return the Book instance
-        return new Book(title, author, isbn, year);
-    }
-
-    private static String extractField(String bibtex, String field) {
-        int startIndex = bibtex.indexOf(field + "=");
-        if (startIndex == -1) {
-            return null;
-        }
-        
-        // Move past the field name and '='
-        startIndex += field.length() + 1; 
-        
-        // Find the end of the field value
-        int endIndex = -1;
-        if (bibtex.charAt(startIndex) == '{') { // Check if the value is enclosed in {}
-            endIndex = bibtex.indexOf("}", startIndex); // Look for the closing '}'
+        return new Book(title, parseAuthor(authorName, entry.getLine(), people), isbn, year);
+    }
+
+    private static Person parseAuthor(String authors, int line, PersonRegistry people) throws ParseException {
+        int and = authors.indexOf(" and ");
+        String name = (and == -1 ? authors : authors.substring(0, and)).trim();
+        int comma = name.indexOf(',');
+        if (comma != -1) {
+            String last = name.substring(0, comma).trim();
+            String first = name.substring(comma + 1).trim();
+            if (!last.isEmpty() && !first.isEmpty()) {
+                return person(first, last, people);
+            }
         } else {
-            endIndex = bibtex.indexOf(",", startIndex); // Look for the next comma
-            // If no comma is found, set the end index to the end of the BibTeX entry
-            if (endIndex == -1) {
-            endIndex = bibtex.length();
+            int space = name.lastIndexOf(' ');
+            if (space != -1) {
+                return person(name.substring(0, space).trim(), name.substring(space + 1), people);
             }
         }
-        
-        /*  Handle the case when endIndex is not found
-        if (endIndex == -1 || startIndex >= endIndex) {
-            return null;
-        }*/
-        
-        // Extract the field value
-        String fieldValue = bibtex.substring(startIndex, endIndex).trim();
-        
-        // Check if the field value contains unwanted characters
-        if (fieldValue.startsWith("{") && fieldValue.endsWith("}")) {
-            // If the field value is enclosed in {}, remove them
-            fieldValue = fieldValue.substring(1, fieldValue.length() - 1);
-        }
-        
-        return fieldValue;
+        throw new ParseException("Invalid author name format in BibTex entry", line);
     }
-    
 
+    private static Person person(String firstName, String lastName, PersonRegistry people) {
+        return people == null ? new Person(firstName, lastName) : people.intern(firstName, lastName);
+    }
 
     /**
      * Returns a string representation of a book
@@ -174,14 +192,14 @@ public class Book extends CatalogueItem {
     @Override
     public String toString() {
         return "Book: Title=" + getTitle() +
-            "; Author=" + author.toString() +
-            "; ISBN=" + isbn +
-            "; Genre=" + genre;
+            "; Author=" + getAuthor().toString() +
+            "; ISBN=" + getIsbn() +
+            "; Genre=" + getGenre();
 }
 
     @Override
     public int hashCode() {
-        return Objects.hash(author, isbn, year, genre);
+        return getMatchKey().hashCode();
     }
 
 }
@@ -0,0 +1,181 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Exact-match lookup of catalogue items by title and by ISBN.
+ * Items added to the index keep a reference back to it, so that
+ * changing the title or ISBN of an item re-indexes it automatically.
+ * Titles and ISBNs are not guaranteed to be unique, so each key maps
+ * to the items sharing it in the order they were added.
+ * Valid ISBNs are normalised with {@link Isbn}, so either form of a number
+ * finds the item, and the first item with each one is kept in an
+ * {@link IsbnMap}. Later items with the same ISBN, and items whose ISBN is
+ * not valid, fall back to a map keyed by text.
+ * Lookups never block and may run concurrently with updates.
+ * Other views of the catalogue can register a {@link CatalogueListener}
+ * to be told about every change to the indexed items.
+ */
+public class CatalogueIndex {
+    private final Map<String, List<CatalogueItem>> byTitle = new ConcurrentHashMap<>();
+    private final IsbnMap byIsbnKey = new IsbnMap();
+    private final Map<String, List<CatalogueItem>> byIsbn = new ConcurrentHashMap<>();
+    private final List<CatalogueListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a listener to be told about changes to the indexed items
+     * @param listener The listener
+     */
+    public void addListener(CatalogueListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds the given item to the index
+     * @param item Item to be indexed
+     */
+    public void add(CatalogueItem item) {
+        put(byTitle, item.getTitle(), item);
+        putIsbn(item, item.getIsbn());
+        item.index = this;
+        for (CatalogueListener listener : listeners) {
+            listener.itemAdded(item);
+        }
+    }
+
+    /**
+     * Removes the given item from the index
+     * @param item Item to be removed
+     */
+    public void remove(CatalogueItem item) {
+        delete(byTitle, item.getTitle(), item);
+        deleteIsbn(item, item.getIsbn());
+        if (item.index == this) {
+            item.index = null;
+        }
+        for (CatalogueListener listener : listeners) {
+            listener.itemRemoved(item);
+        }
+    }
+
+    /**
+     * Finds an item given its exact title or ISBN. Titles take precedence over ISBNs.
+     * @param titleOrISBN Title or ISBN of item to find
+     * @return The first item indexed under the given title or ISBN, or null otherwise
+     */
+    public CatalogueItem find(String titleOrISBN) {
+        CatalogueItem item = first(byTitle, titleOrISBN);
+        return item != null ? item : findByIsbn(titleOrISBN);
+    }
+
+    /**
+     * Finds an item given its exact title
+     * @param title Title of item to find
+     * @return The first item with the given title, or null otherwise
+     */
+    public CatalogueItem findByTitle(String title) {
+        return first(byTitle, title);
+    }
+
+    /**
+     * Finds an item given its ISBN. Valid ISBNs are matched in either
+     * form; other text must match exactly.
+     * @param isbn ISBN of item to find
+     * @return The first item with the given ISBN, or null otherwise
+     */
+    public CatalogueItem findByIsbn(String isbn) {
+        long key = Isbn.parse(isbn);
+        return key != Isbn.INVALID ? byIsbnKey.get(key) : first(byIsbn, isbn);
+    }
+
+    void titleChanged(CatalogueItem item, String oldTitle) {
+        delete(byTitle, oldTitle, item);
+        put(byTitle, item.getTitle(), item);
+        for (CatalogueListener listener : listeners) {
+            listener.titleChanged(item, oldTitle);
+        }
+    }
+
+    void isbnChanged(CatalogueItem item, String oldIsbn) {
+        deleteIsbn(item, oldIsbn);
+        putIsbn(item, item.getIsbn());
+        for (CatalogueListener listener : listeners) {
+            listener.isbnChanged(item, oldIsbn);
+        }
+    }
+
+    void authorChanged(Book book, Person oldAuthor) {
+        for (CatalogueListener listener : listeners) {
+            listener.authorChanged(book, oldAuthor);
+        }
+    }
+
+    private void putIsbn(CatalogueItem item, String isbn) {
+        long key = Isbn.parse(isbn);
+        if (key == Isbn.INVALID) {
+            put(byIsbn, isbn, item);
+            return;
+        }
+        synchronized (byIsbnKey) {
+            if (!byIsbnKey.putIfAbsent(key, item)) {
+                put(byIsbn, Isbn.format(key), item);
+            }
+        }
+    }
+
+    private void deleteIsbn(CatalogueItem item, String isbn) {
+        long key = Isbn.parse(isbn);
+        if (key == Isbn.INVALID) {
+            delete(byIsbn, isbn, item);
+            return;
+        }
+        synchronized (byIsbnKey) {
+            String text = Isbn.format(key);
+            if (!byIsbnKey.remove(key, item)) {
+                delete(byIsbn, text, item);
+                return;
+            }
+            // The next item with the same ISBN takes the place of the removed one
+            CatalogueItem next = first(byIsbn, text);
+            if (next != null) {
+                delete(byIsbn, text, next);
+                byIsbnKey.putIfAbsent(key, next);
+            }
+        }
+    }
+
+    private static void put(Map<String, List<CatalogueItem>> map, String key, CatalogueItem item) {
+        if (key != null) {
+            map.compute(key, (k, items) -> {
+                List<CatalogueItem> result = items == null ? new CopyOnWriteArrayList<>() : items;
+                result.add(item);
+                return result;
+            });
+        }
+    }
+
+    private static void delete(Map<String, List<CatalogueItem>> map, String key, CatalogueItem item) {
+        if (key != null) {
+            map.computeIfPresent(key, (k, items) -> {
+                items.removeIf(other -> other == item);
+                return items.isEmpty() ? null : items;
+            });
+        }
+    }
+
+    private static CatalogueItem first(Map<String, List<CatalogueItem>> map, String key) {
+        List<CatalogueItem> items = key == null ? null : map.get(key);
+        if (items != null) {
+            // Iterates over a snapshot, which may have been emptied by a concurrent removal
+            for (CatalogueItem item : items) {
+                return item;
+            }
+        }
+        return null;
+    }
+}
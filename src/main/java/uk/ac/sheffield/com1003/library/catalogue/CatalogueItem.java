@@ -1,10 +1,30 @@
 package uk.ac.sheffield.com1003.library.catalogue;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 public class CatalogueItem {
+    // Plain fields updated through var handles, so an item carries no counter objects of its own
+    private static final VarHandle COPIES;
+    private static final VarHandle COPIES_ON_LOAN;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            COPIES = lookup.findVarHandle(CatalogueItem.class, "copies", int.class);
+            COPIES_ON_LOAN = lookup.findVarHandle(CatalogueItem.class, "copiesOnLoan", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String title;
     private String isbn;
     private int year;
-    private int copies;
+    private volatile int copies;
+    private volatile int copiesOnLoan;
+    volatile CatalogueIndex index;
+    int slot = -1;
 
     public CatalogueItem() {
         this("Item", 0, 0, "0000000000000");
@@ -35,7 +55,11 @@ public class CatalogueItem {
     
 
     public void setTitle(String title) {
+        String oldTitle = this.title;
         this.title = title;
+        if (index != null) {
+            index.titleChanged(this, oldTitle);
+        }
     }
 
     public int getYear() {
@@ -58,12 +82,20 @@ public class CatalogueItem {
         return isbn;
     }
 
+    public void setIsbn(String isbn) {
+        String oldIsbn = this.isbn;
+        this.isbn = isbn;
+        if (index != null) {
+            index.isbnChanged(this, oldIsbn);
+        }
+    }
+
     /**
      * Adds copies of a catalogue item
      * @param n number of copies of catalogue item to add
      */
     public void addCopies(int n) {
-        this.copies += n;
+        COPIES.getAndAdd(this, n);
     }
     
 
@@ -71,18 +103,65 @@ public class CatalogueItem {
      * Adds a single copy of a catalogue item
      */
     public void addCopy() {
-        this.copies++;
+        COPIES.getAndAdd(this, 1);
     }
 
     public void decrementCopies() {
-        if (copies > 0) {
-            copies--;
-        } else {
+        if (!takeCopy()) {
             System.out.println("No more copies available to decrement.");
         }
     }
 
+    /**
+     * Atomically removes a single copy of a catalogue item if there is one
+     * @return true if a copy was removed; false if there were no copies left
+     */
+    public boolean takeCopy() {
+        int n;
+        do {
+            n = copies;
+            if (n <= 0) {
+                return false;
+            }
+        } while (!COPIES.compareAndSet(this, n, n - 1));
+        return true;
+    }
+
+    /**
+     * Atomically removes up to the given number of copies of a catalogue item
+     * @param n Number of copies wanted
+     * @return Number of copies removed, which is less than n if there were not enough
+     */
+    public int takeCopies(int n) {
+        int available;
+        int taken;
+        do {
+            available = copies;
+            taken = Math.min(n, available);
+            if (taken <= 0) {
+                return 0;
+            }
+        } while (!COPIES.compareAndSet(this, available, available - taken));
+        return taken;
+    }
+
     public boolean isAvailable() {
         return copies > 0;
     }
+
+    /**
+     * Returns the number of copies of the item currently on loan
+     * @return Copies on loan
+     */
+    public int getCopiesOnLoan() {
+        return copiesOnLoan;
+    }
+
+    /**
+     * Adds to the number of copies on loan; called by the loan ledger as loans start and end
+     * @param n Number of copies to add, negative when loans are returned
+     */
+    public void addCopiesOnLoan(int n) {
+        COPIES_ON_LOAN.getAndAdd(this, n);
+    }
 }
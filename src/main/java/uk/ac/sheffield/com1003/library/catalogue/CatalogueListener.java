@@ -0,0 +1,23 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+/**
+ * Receives changes to the items of a {@link CatalogueIndex}, so that other
+ * views of the catalogue can be kept up to date incrementally.
+ * Methods are called after the change has been made.
+ */
+public interface CatalogueListener {
+
+    void itemAdded(CatalogueItem item);
+
+    void itemRemoved(CatalogueItem item);
+
+    void titleChanged(CatalogueItem item, String oldTitle);
+
+    default void isbnChanged(CatalogueItem item, String oldIsbn) {
+    }
+
+    default void authorChanged(Book book, Person oldAuthor) {
+    }
+}
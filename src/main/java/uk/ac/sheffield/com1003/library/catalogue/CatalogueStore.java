@@ -0,0 +1,142 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Growable storage for catalogue items. Each item remembers the slot it
+ * is stored in and freed slots are kept on a stack, so both adding and
+ * removing an item take amortised constant time.
+ * Updates are serialised; snapshots are published safely to other threads.
+ */
+public class CatalogueStore {
+    private static final CatalogueItem[] EMPTY = new CatalogueItem[0];
+
+    private CatalogueItem[] items;
+    private int[] freeSlots;
+    private int freeCount;
+    private int end;
+    private volatile int size;
+    private volatile CatalogueItem[] snapshot = EMPTY;
+
+    /**
+     * Constructor that takes the number of items the store should
+     * be able to hold before it has to grow
+     * @param initialCapacity Initial number of slots
+     */
+    public CatalogueStore(int initialCapacity) {
+        this.items = new CatalogueItem[Math.max(1, initialCapacity)];
+        this.freeSlots = new int[8];
+    }
+
+    /**
+     * Adds the given item to the store, growing it if needed
+     * @param item Item to be stored
+     * @return false if the item is already in a store; true otherwise
+     */
+    public synchronized boolean add(CatalogueItem item) {
+        if (item.slot >= 0) {
+            return false;
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (end == items.length) {
+                items = Arrays.copyOf(items, items.length * 2);
+            }
+            slot = end++;
+        }
+        items[slot] = item;
+        item.slot = slot;
+        size++;
+        snapshot = null;
+        return true;
+    }
+
+    /**
+     * Adds the given items to the store, growing it at most once
+     * @param newItems Items to be stored
+     * @return The items added, excluding those already in a store
+     */
+    public synchronized List<CatalogueItem> addAll(Collection<? extends CatalogueItem> newItems) {
+        int needed = end + Math.max(0, newItems.size() - freeCount);
+        if (needed > items.length) {
+            items = Arrays.copyOf(items, Math.max(needed, items.length * 2));
+        }
+        List<CatalogueItem> added = new ArrayList<>(newItems.size());
+        for (CatalogueItem item : newItems) {
+            if (add(item)) {
+                added.add(item);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Removes the given item from the store
+     * @param item Item to be removed
+     * @return true if the item was in this store; false otherwise
+     */
+    public synchronized boolean remove(CatalogueItem item) {
+        int slot = item.slot;
+        if (slot < 0 || slot >= end || items[slot] != item) {
+            return false;
+        }
+        items[slot] = null;
+        item.slot = -1;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        snapshot = null;
+        return true;
+    }
+
+    /**
+     * Tells whether the given item is in this store
+     * @param item The item
+     * @return true if the item is in this store; false otherwise
+     */
+    public synchronized boolean contains(CatalogueItem item) {
+        int slot = item.slot;
+        return slot >= 0 && slot < end && items[slot] == item;
+    }
+
+    /**
+     * Returns the number of items in the store
+     * @return Number of items
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the items currently stored, excluding empty slots.
+     * The array is cached until the store is next modified and is shared
+     * between callers, so it must not be modified.
+     * @return Array of stored items
+     */
+    public CatalogueItem[] snapshot() {
+        CatalogueItem[] result = snapshot;
+        return result != null ? result : buildSnapshot();
+    }
+
+    private synchronized CatalogueItem[] buildSnapshot() {
+        CatalogueItem[] result = snapshot;
+        if (result == null) {
+            result = new CatalogueItem[size];
+            int n = 0;
+            for (int i = 0; i < end; i++) {
+                if (items[i] != null) {
+                    result[n++] = items[i];
+                }
+            }
+            snapshot = result;
+        }
+        return result;
+    }
+}
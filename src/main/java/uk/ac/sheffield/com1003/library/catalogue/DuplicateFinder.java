@@ -0,0 +1,304 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds books that are probably the same work even though they are not
+ * {@link Book#equals equal}, such as "Clean Code" and "Clean Code: A Handbook
+ * of Agile Software Craftsmanship" by "Robert C. Martin" and "Robert Martin".
+ * Comparing every pair of a large catalogue is out of the question, so books
+ * are first put into blocks and only books sharing a block are compared. A
+ * book joins one block for each significant word of its title, together with
+ * the author's last name, so titles sharing any word are compared however they
+ * start, and one block for its ISBN if valid, so books with the same ISBN are
+ * compared whoever the author is. A pair sharing several blocks is suggested
+ * once. Blocks too large to compare every pair are
+ * sorted by title and each book is compared with the books that follow it
+ * within a window. Preparing the books and scoring the blocks both run on
+ * a {@link ForkJoinPool}, so the work grows with the size of the catalogue
+ * rather than its square and is spread over every core.
+ * A pair scores between 0 and 1: the title counts for most of the score,
+ * with a title whose words all appear in the other scoring high, and the
+ * author's first name for the rest, with initials matching full names.
+ * Books compared which have the same valid ISBN score 1.
+ */
+public class DuplicateFinder {
+    /**
+     * Score at or above which a pair is suggested unless otherwise specified
+     */
+    public static final double DEFAULT_THRESHOLD = 0.8;
+
+    private static final int MAX_BLOCK = 512;
+    private static final int WINDOW = 64;
+    private static final int MIN_TASK = 4096;
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "of", "and", "on", "in");
+
+    private final ForkJoinPool pool;
+    private final double threshold;
+
+    public DuplicateFinder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor that takes the pool to work on and the lowest score to suggest
+     * @param pool Pool the books are prepared and scored on
+     * @param threshold Score from 0 to 1 at or above which a pair is suggested
+     */
+    public DuplicateFinder(ForkJoinPool pool, double threshold) {
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Books prepared for comparison: normalised once, compared many times
+     */
+    private static final class Entry {
+        private final Book book;
+        private final int position;
+        private final String title;
+        private final String[] words; // Distinct and sorted
+        private final String firstName;
+        private final String lastName;
+        private final long isbn;
+
+        private Entry(Book book, int position) {
+            Person author = book.getAuthor();
+            this.book = book;
+            this.position = position;
+            this.title = MatchKey.normalise(book.getTitle(), false);
+            this.words = title.isEmpty() ? new String[0] : Arrays.stream(title.split(" ")).distinct().sorted().toArray(String[]::new);
+            this.firstName = author == null ? "" : MatchKey.normalise(author.getFirstName(), true);
+            this.lastName = author == null ? "" : MatchKey.normalise(author.getLastName(), false);
+            this.isbn = Isbn.parse(book.getIsbn());
+        }
+
+        /**
+         * Returns the keys of the blocks the book is compared within
+         */
+        private List<String> blocks() {
+            List<String> keys = new ArrayList<>(words.length + 1);
+            for (String word : words) {
+                if (!STOP_WORDS.contains(word)) {
+                    keys.add(lastName + '|' + word);
+                }
+            }
+            if (keys.isEmpty()) {
+                // Every word is a stop word, or there is no title
+                keys.add(lastName + '|' + title);
+            }
+            if (isbn != Isbn.INVALID) {
+                keys.add("#" + isbn);
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Finds the books among the given items which are probably duplicates of each other.
+     * Items which are not books are ignored.
+     * @param items Items to search, such as {@link uk.ac.sheffield.com1003.library.Library#getCatalogue()}
+     * @return Suggested merges, most alike first
+     */
+    public List<MergeSuggestion> find(Collection<? extends CatalogueItem> items) {
+        List<Book> books = new ArrayList<>(items.size());
+        for (CatalogueItem item : items) {
+            if (item instanceof Book) {
+                books.add((Book) item);
+            }
+        }
+        Entry[] entries = new Entry[books.size()];
+        pool.invoke(new PrepareTask(books, entries, 0, entries.length));
+
+        Map<String, List<Entry>> blocks = new HashMap<>();
+        for (Entry entry : entries) {
+            for (String key : entry.blocks()) {
+                blocks.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+            }
+        }
+        List<List<Entry>> candidates = new ArrayList<>();
+        for (List<Entry> block : blocks.values()) {
+            if (block.size() > 1) {
+                candidates.add(block);
+            }
+        }
+
+        Set<Long> suggested = ConcurrentHashMap.newKeySet();
+        List<MergeSuggestion> suggestions = pool.invoke(new ScoreTask(candidates, suggested, 0, candidates.size()));
+        suggestions.sort(Comparator.comparingDouble(MergeSuggestion::getScore).reversed());
+        return suggestions;
+    }
+
+    /**
+     * Scores how alike two books are, from 0 to 1
+     * @param a A book
+     * @param b Another book
+     * @return The score
+     */
+    public static double score(Book a, Book b) {
+        return score(new Entry(a, 0), new Entry(b, 1));
+    }
+
+    private static double score(Entry a, Entry b) {
+        if (a.isbn != Isbn.INVALID && a.isbn == b.isbn) {
+            return 1;
+        }
+        if (!a.lastName.equals(b.lastName)) {
+            return 0;
+        }
+        return 0.7 * titleScore(a, b) + 0.3 * firstNameScore(a.firstName, b.firstName);
+    }
+
+    /**
+     * Mixes the share of the shorter title found in the longer one, so a
+     * title without its subtitle still scores well, with the share of all
+     * words the titles have in common
+     */
+    private static double titleScore(Entry a, Entry b) {
+        if (a.title.equals(b.title)) {
+            return 1;
+        }
+        if (a.words.length == 0 || b.words.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.words.length && j < b.words.length) {
+            int c = a.words[i].compareTo(b.words[j]);
+            if (c == 0) {
+                common++;
+                i++;
+                j++;
+            } else if (c < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        double overlap = (double) common / Math.min(a.words.length, b.words.length);
+        double jaccard = (double) common / (a.words.length + b.words.length - common);
+        return 0.75 * overlap + 0.25 * jaccard;
+    }
+
+    private static double firstNameScore(String a, String b) {
+        if (a.equals(b)) {
+            return 1;
+        }
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0.5;
+        }
+        if ((a.length() == 1 || b.length() == 1) && a.charAt(0) == b.charAt(0)) {
+            return 0.8; // An initial and a name starting with it
+        }
+        return 0;
+    }
+
+    private static class PrepareTask extends RecursiveAction {
+        private final List<Book> books;
+        private final Entry[] entries;
+        private final int start;
+        private final int end;
+
+        private PrepareTask(List<Book> books, Entry[] entries, int start, int end) {
+            this.books = books;
+            this.entries = entries;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > MIN_TASK) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new PrepareTask(books, entries, start, middle), new PrepareTask(books, entries, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                entries[i] = new Entry(books.get(i), i);
+            }
+        }
+    }
+
+    private class ScoreTask extends RecursiveTask<List<MergeSuggestion>> {
+        private final List<List<Entry>> blocks;
+        private final Set<Long> suggested; // Positions of the pairs already suggested from another block
+        private final int start;
+        private final int end;
+
+        private ScoreTask(List<List<Entry>> blocks, Set<Long> suggested, int start, int end) {
+            this.blocks = blocks;
+            this.suggested = suggested;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected List<MergeSuggestion> compute() {
+            if (end - start > 1 && work() > MIN_TASK) {
+                int middle = (start + end) >>> 1;
+                ScoreTask right = new ScoreTask(blocks, suggested, middle, end);
+                right.fork();
+                List<MergeSuggestion> result = new ScoreTask(blocks, suggested, start, middle).compute();
+                result.addAll(right.join());
+                return result;
+            }
+            List<MergeSuggestion> result = new ArrayList<>();
+            for (int i = start; i < end; i++) {
+                scoreBlock(blocks.get(i), result);
+            }
+            return result;
+        }
+
+        /**
+         * Estimates the number of pairs this task compares
+         */
+        private long work() {
+            long pairs = 0;
+            for (int i = start; i < end && pairs <= MIN_TASK; i++) {
+                long n = blocks.get(i).size();
+                pairs += n > MAX_BLOCK ? n * WINDOW : n * (n - 1) / 2;
+            }
+            return pairs;
+        }
+
+        private long pair(Entry a, Entry b) {
+            int first = Math.min(a.position, b.position);
+            int second = Math.max(a.position, b.position);
+            return ((long) first << 32) | second;
+        }
+
+        private void scoreBlock(List<Entry> block, List<MergeSuggestion> result) {
+            int window = block.size();
+            if (window > MAX_BLOCK) {
+                block.sort(Comparator.comparing((Entry entry) -> entry.title));
+                window = WINDOW;
+            }
+            for (int i = 0; i < block.size(); i++) {
+                Entry a = block.get(i);
+                for (int j = i + 1; j < block.size() && j <= i + window; j++) {
+                    Entry b = block.get(j);
+                    double score = score(a, b);
+                    if (score >= threshold && suggested.add(pair(a, b))) {
+                        result.add(a.position < b.position
+                                ? new MergeSuggestion(a.book, b.book, score)
+                                : new MergeSuggestion(b.book, a.book, score));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The books of a {@link CatalogueIndex} grouped by {@link MatchKey}, so the
+ * catalogued copy of a work can be found in constant time, e.g. to merge
+ * a duplicate during an import. Each book is remembered under the key it
+ * was indexed with and is re-indexed when its title or author is replaced.
+ * Lookups never block and may run concurrently with updates.
+ */
+public class DuplicateIndex implements CatalogueListener {
+    private final Map<MatchKey, List<Book>> byKey = new ConcurrentHashMap<>();
+    private final Map<Book, MatchKey> keys = new IdentityHashMap<>();
+
+    @Override
+    public synchronized void itemAdded(CatalogueItem item) {
+        if (item instanceof Book && !keys.containsKey(item)) {
+            index((Book) item);
+        }
+    }
+
+    @Override
+    public synchronized void itemRemoved(CatalogueItem item) {
+        if (item instanceof Book) {
+            unindex((Book) item);
+        }
+    }
+
+    @Override
+    public synchronized void titleChanged(CatalogueItem item, String oldTitle) {
+        if (item instanceof Book && unindex((Book) item)) {
+            index((Book) item);
+        }
+    }
+
+    @Override
+    public synchronized void authorChanged(Book book, Person oldAuthor) {
+        if (unindex(book)) {
+            index(book);
+        }
+    }
+
+    /**
+     * Finds a catalogued book which is the same work as the given one
+     * @param book The book to match, which need not be in the catalogue
+     * @return The first book indexed with the same match key, or null if there is none
+     */
+    public Book find(Book book) {
+        List<Book> books = byKey.get(book.getMatchKey());
+        if (books != null) {
+            // Iterates over a snapshot, which may have been emptied by a concurrent removal
+            for (Book match : books) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns every catalogued book with the given match key, in the order they were indexed
+     * @param key The match key
+     * @return List of books
+     */
+    public List<Book> findAll(MatchKey key) {
+        List<Book> books = byKey.get(key);
+        return books == null ? new ArrayList<>() : new ArrayList<>(books);
+    }
+
+    private void index(Book book) {
+        MatchKey key = book.getMatchKey();
+        keys.put(book, key);
+        byKey.compute(key, (k, books) -> {
+            List<Book> result = books == null ? new CopyOnWriteArrayList<>() : books;
+            result.add(book);
+            return result;
+        });
+    }
+
+    private boolean unindex(Book book) {
+        MatchKey key = keys.remove(book);
+        if (key == null) {
+            return false;
+        }
+        byKey.computeIfPresent(key, (k, books) -> {
+            books.removeIf(other -> other == book);
+            return books.isEmpty() ? null : books;
+        });
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+/**
+ * A validated ISBN, normalised to its 13 digit form and held in a long.
+ * ISBN-10s are converted to ISBN-13s by adding the 978 prefix and
+ * recomputing the check digit, so both forms of a number are equal.
+ * Hyphens and spaces between digits are ignored.
+ * The static methods work on the long form directly and never allocate,
+ * so they can be used on lookup paths.
+ */
+public final class Isbn implements Comparable<Isbn> {
+    /**
+     * Long form returned for text which is not a valid ISBN
+     */
+    public static final long INVALID = -1;
+
+    private final long value;
+
+    private Isbn(long value) {
+        this.value = value;
+    }
+
+    /**
+     * Parses the given ISBN-10 or ISBN-13
+     * @param text The ISBN
+     * @return The normalised ISBN
+     * @throws IllegalArgumentException if the text is not a valid ISBN
+     */
+    public static Isbn of(CharSequence text) {
+        long value = parse(text);
+        if (value == INVALID) {
+            throw new IllegalArgumentException("Invalid ISBN: " + text);
+        }
+        return new Isbn(value);
+    }
+
+    /**
+     * Returns whether the given text is a valid ISBN-10 or ISBN-13
+     * @param text The text to check
+     * @return true if the text is a valid ISBN; false otherwise
+     */
+    public static boolean isValid(CharSequence text) {
+        return parse(text) != INVALID;
+    }
+
+    /**
+     * Parses the given ISBN-10 or ISBN-13 into the long form of its ISBN-13
+     * @param text The ISBN, which may be null
+     * @return The ISBN-13 as a number, or {@link Isbn#INVALID} if the text is
+     * not a valid ISBN
+     */
+    public static long parse(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        long digits = 0;
+        int count = 0;
+        int sum10 = 0;
+        int sum13 = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if ((c == 'X' || c == 'x') && count == 9 && i == length - 1) {
+                digit = 10; // Check digit of an ISBN-10
+            } else if ((c == '-' || c == ' ') && count > 0 && i < length - 1) {
+                continue;
+            } else {
+                return INVALID;
+            }
+            if (count == 13) {
+                return INVALID;
+            }
+            sum10 += digit * (10 - count);
+            sum13 += digit * (count % 2 == 0 ? 1 : 3);
+            digits = digits * 10 + Math.min(digit, 9);
+            count++;
+        }
+        if (count == 13) {
+            long prefix = digits / 10_000_000_000L;
+            return sum13 % 10 == 0 && (prefix == 978 || prefix == 979) ? digits : INVALID;
+        }
+        if (count == 10 && sum10 % 11 == 0) {
+            long body = 978_000_000_000L + digits / 10;
+            return body * 10 + checkDigit13(body);
+        }
+        return INVALID;
+    }
+
+    private static int checkDigit13(long body) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (int) (body % 10) * (i % 2 == 0 ? 3 : 1);
+            body /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Returns the 13 digits of the given long form as text
+     * @param value Long form returned by {@link Isbn#parse(CharSequence)}
+     * @return The ISBN-13 without hyphens
+     */
+    public static String format(long value) {
+        return Long.toString(value);
+    }
+
+    /**
+     * Returns the ISBN-13 as a number
+     * @return The long form of this ISBN
+     */
+    public long toLong() {
+        return value;
+    }
+
+    /**
+     * Returns the ISBN-13 as text without hyphens
+     * @return The 13 digits of this ISBN
+     */
+    @Override
+    public String toString() {
+        return format(value);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Isbn && ((Isbn) other).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(value);
+    }
+
+    @Override
+    public int compareTo(Isbn other) {
+        return Long.compare(value, other.value);
+    }
+}
@@ -0,0 +1,147 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from the long form of an {@link Isbn} to a
+ * single catalogue item, with linear probing over parallel arrays.
+ * Updates are serialised; lookups take no lock and allocate nothing.
+ * Removed entries keep their key with a null item until the next resize,
+ * so a lookup running concurrently with a removal never misses an entry
+ * further along the probe sequence.
+ */
+class IsbnMap {
+    private static final long EMPTY = -1;
+
+    /**
+     * Keys and items are replaced together when the map is resized
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final CatalogueItem[] items;
+
+        private Table(int capacity) {
+            keys = new long[capacity];
+            items = new CatalogueItem[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+    }
+
+    private volatile Table table = new Table(64);
+    private int used;  // Slots with a key, including removed ones
+    private volatile int size;
+
+    /**
+     * Returns the item stored under the given key
+     * @param key Long form of an ISBN
+     * @return The item, or null if there is none
+     */
+    CatalogueItem get(long key) {
+        if (size == 0) {  // Volatile read: makes completed updates visible
+            return null;
+        }
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = t.keys[i];
+            if (k == key) {
+                return t.items[i];
+            }
+            if (k == EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stores the item under the given key unless another item is stored there
+     * @param key Long form of an ISBN
+     * @param item Item to store
+     * @return true if the item was stored; false if the key was taken
+     */
+    synchronized boolean putIfAbsent(long key, CatalogueItem item) {
+        if ((used + 1) * 2 > table.keys.length) {
+            resize();
+        }
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = t.keys[i];
+            if (k == key) {
+                if (t.items[i] != null) {
+                    return false;
+                }
+                t.items[i] = item;
+                break;
+            }
+            if (k == EMPTY) {
+                t.items[i] = item;
+                t.keys[i] = key;
+                used++;
+                break;
+            }
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the given item if it is stored under the given key
+     * @param key Long form of an ISBN
+     * @param item Item to remove
+     * @return true if the item was removed; false if it was not stored under the key
+     */
+    synchronized boolean remove(long key, CatalogueItem item) {
+        Table t = table;
+        int mask = t.keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = t.keys[i];
+            if (k == key) {
+                if (t.items[i] != item) {
+                    return false;
+                }
+                t.items[i] = null;
+                size--;
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of items stored
+     * @return Number of items
+     */
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        Table old = table;
+        int capacity = old.keys.length;
+        while (size * 4 >= capacity) {
+            capacity *= 2;
+        }
+        Table t = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.keys.length; j++) {
+            if (old.items[j] != null) {
+                int i = hash(old.keys[j]) & mask;
+                while (t.keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                t.keys[i] = old.keys[j];
+                t.items[i] = old.items[j];
+            }
+        }
+        used = size;
+        table = t;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
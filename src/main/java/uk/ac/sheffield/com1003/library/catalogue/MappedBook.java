@@ -0,0 +1,139 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+/**
+ * The view of a book stored in a {@link MappedCatalogue}. It keeps only the
+ * catalogue and its row; every field is read from and written to the columns.
+ * The author is decoded once and kept until the names in the row change.
+ */
+class MappedBook extends Book {
+    private final MappedCatalogue catalogue;
+    private final int row;
+    private volatile Author author;
+
+    /**
+     * The author of the row and the dictionary ids of the names it was decoded from
+     */
+    private static final class Author {
+        private final long ids;
+        private final Person person;
+
+        private Author(long ids, Person person) {
+            this.ids = ids;
+            this.person = person;
+        }
+    }
+
+    MappedBook(MappedCatalogue catalogue, int row) {
+        super(null);
+        this.catalogue = catalogue;
+        this.row = row;
+    }
+
+    @Override
+    public String getTitle() {
+        return catalogue.title(row);
+    }
+
+    @Override
+    public void setTitle(String title) {
+        String oldTitle = getTitle();
+        catalogue.setTitle(row, title);
+        if (index != null) {
+            index.titleChanged(this, oldTitle);
+        }
+    }
+
+    @Override
+    public Person getAuthor() {
+        long ids = catalogue.authorIds(row);
+        Author cached = author;
+        if (cached == null || cached.ids != ids) {
+            cached = new Author(ids, catalogue.author(ids));
+            author = cached;
+        }
+        return cached.person;
+    }
+
+    @Override
+    public void setAuthor(Person person) {
+        Person oldAuthor = getAuthor();
+        synchronized (catalogue) {
+            catalogue.setAuthor(row, person);
+            author = new Author(catalogue.authorIds(row), person);
+        }
+        if (index != null) {
+            index.authorChanged(this, oldAuthor);
+        }
+    }
+
+    @Override
+    public String getIsbn() {
+        return catalogue.isbn(row);
+    }
+
+    @Override
+    public void setIsbn(String isbn) {
+        String oldIsbn = getIsbn();
+        catalogue.setIsbn(row, isbn);
+        if (index != null) {
+            index.isbnChanged(this, oldIsbn);
+        }
+    }
+
+    @Override
+    public int getYear() {
+        return catalogue.year(row);
+    }
+
+    @Override
+    public void setYear(int year) {
+        catalogue.setYear(row, year);
+    }
+
+    @Override
+    public Genre getGenre() {
+        return catalogue.genre(row);
+    }
+
+    @Override
+    public void setGenre(Genre genre) {
+        catalogue.setGenre(row, genre);
+    }
+
+    @Override
+    public int getCopies() {
+        return catalogue.copies(row);
+    }
+
+    @Override
+    public void setCopies(int copies) {
+        catalogue.setCopies(row, copies);
+    }
+
+    @Override
+    public void addCopies(int n) {
+        catalogue.addCopies(row, n);
+    }
+
+    @Override
+    public void addCopy() {
+        catalogue.addCopies(row, 1);
+    }
+
+    @Override
+    public boolean takeCopy() {
+        return catalogue.takeCopy(row);
+    }
+
+    @Override
+    public int takeCopies(int n) {
+        return catalogue.takeCopies(row, n);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return getCopies() > 0;
+    }
+}
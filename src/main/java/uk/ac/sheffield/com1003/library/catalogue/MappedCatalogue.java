@@ -0,0 +1,355 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Catalogue of books kept outside the Java heap, in memory-mapped files
+ * under a directory. Each field is stored in a column of its own: titles
+ * and author names as ids into a {@link StringDictionary}, year, copies
+ * and genre as ints and the ISBN in a fixed-width column. Each row has
+ * a single {@link Book} view, created the first time it is asked for,
+ * which holds no fields of the book but reads and writes the columns of
+ * its row, so only the rows in use cost any heap.
+ * The views are ordinary catalogue items: {@link MappedCatalogue#views()}
+ * can be added to a {@link uk.ac.sheffield.com1003.library.Library}, whose
+ * loans and copy counts then go straight to the mapped columns. The
+ * library's own indexes still keep the titles and ISBNs they look up by.
+ * Opening an existing catalogue only maps its files, so it takes the same
+ * time whatever the size of the catalogue.
+ * Books are added one at a time; views may be used from any thread and
+ * their copy counts are updated atomically.
+ */
+public class MappedCatalogue implements Closeable {
+    private static final int MAGIC = 0x4C494243;
+    private static final int VERSION = 1;
+    private static final int INITIAL_ROWS = 1024;
+    private static final int ISBN_WIDTH = 16;
+    private static final byte ISBN_NULL = -1;
+    private static final byte ISBN_IN_DICTIONARY = 127;
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle VIEW = MethodHandles.arrayElementVarHandle(MappedBook[].class);
+
+    private final MappedColumn meta;
+    private final MappedColumn titles;
+    private final MappedColumn firstNames;
+    private final MappedColumn lastNames;
+    private final MappedColumn years;
+    private final MappedColumn copies;
+    private final MappedColumn genres;
+    private final MappedColumn isbns;
+    private final StringDictionary strings;
+    private volatile int size;
+    private volatile MappedBook[] views = new MappedBook[INITIAL_ROWS];
+
+    /**
+     * Opens the catalogue stored in the given directory, creating an empty one if there is none
+     * @param directory Directory holding the column files
+     * @throws IOException if the files cannot be opened or are not a catalogue
+     */
+    public MappedCatalogue(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        meta = new MappedColumn(directory.resolve("catalogue.meta"), 12);
+        ByteBuffer header = meta.buffer();
+        if (header.getInt(0) == 0) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a catalogue: " + directory);
+        }
+        titles = new MappedColumn(directory.resolve("title.col"), INITIAL_ROWS * 4);
+        firstNames = new MappedColumn(directory.resolve("author-first.col"), INITIAL_ROWS * 4);
+        lastNames = new MappedColumn(directory.resolve("author-last.col"), INITIAL_ROWS * 4);
+        years = new MappedColumn(directory.resolve("year.col"), INITIAL_ROWS * 4);
+        copies = new MappedColumn(directory.resolve("copies.col"), INITIAL_ROWS * 4);
+        genres = new MappedColumn(directory.resolve("genre.col"), INITIAL_ROWS * 4);
+        isbns = new MappedColumn(directory.resolve("isbn.col"), INITIAL_ROWS * ISBN_WIDTH);
+        strings = new StringDictionary(directory.resolve("strings.dat"), directory.resolve("strings.idx"));
+        size = header.getInt(8);
+    }
+
+    /**
+     * Adds a copy of the fields of the given book to the catalogue
+     * @param book Book to be stored
+     * @return Row of the new book
+     * @throws IOException if the columns cannot grow
+     */
+    public synchronized int add(Book book) throws IOException {
+        int row = size;
+        titles.ensureCapacity((row + 1) * 4L);
+        firstNames.ensureCapacity((row + 1) * 4L);
+        lastNames.ensureCapacity((row + 1) * 4L);
+        years.ensureCapacity((row + 1) * 4L);
+        copies.ensureCapacity((row + 1) * 4L);
+        genres.ensureCapacity((row + 1) * 4L);
+        isbns.ensureCapacity((row + 1) * (long) ISBN_WIDTH);
+
+        Person author = book.getAuthor();
+        titles.buffer().putInt(row * 4, strings.intern(book.getTitle()));
+        firstNames.buffer().putInt(row * 4, strings.intern(author == null ? null : author.getFirstName()));
+        lastNames.buffer().putInt(row * 4, strings.intern(author == null ? null : author.getLastName()));
+        years.buffer().putInt(row * 4, book.getYear());
+        copies.buffer().putInt(row * 4, book.getCopies());
+        genres.buffer().putInt(row * 4, book.getGenre() == null ? -1 : book.getGenre().ordinal());
+        writeIsbn(row, book.getIsbn());
+
+        // Publishes the row only once all of its columns are written
+        meta.buffer().putInt(8, row + 1);
+        size = row + 1;
+        return row;
+    }
+
+    /**
+     * Adds copies of the fields of the given books to the catalogue
+     * @param books Books to be stored
+     * @return Row of the first book added
+     * @throws IOException if the columns cannot grow
+     */
+    public synchronized int addAll(Collection<? extends Book> books) throws IOException {
+        int first = size;
+        for (Book book : books) {
+            add(book);
+        }
+        return first;
+    }
+
+    /**
+     * Returns the view of the book stored in the given row. Every call for
+     * the same row returns the same view, and changes made through it are
+     * written to the catalogue.
+     * @param row Row of the book
+     * @return View of the book
+     */
+    public Book get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        MappedBook[] current = views;
+        MappedBook view = row < current.length ? (MappedBook) VIEW.getAcquire(current, row) : null;
+        return view != null ? view : createView(row);
+    }
+
+    /**
+     * Returns the views of every book in the catalogue, in row order. The
+     * list reads the catalogue as it goes, so views are only created for
+     * the rows visited.
+     * @return List of views
+     */
+    public List<Book> views() {
+        return new Views();
+    }
+
+    private final class Views extends AbstractList<Book> implements RandomAccess {
+        private final int size = MappedCatalogue.this.size;
+
+        @Override
+        public Book get(int row) {
+            if (row >= size) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+            }
+            return MappedCatalogue.this.get(row);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private synchronized MappedBook createView(int row) {
+        MappedBook[] current = views;
+        if (row >= current.length) {
+            current = Arrays.copyOf(current, Math.max(row + 1, current.length * 2));
+            views = current;
+        }
+        MappedBook view = current[row];
+        if (view == null) {
+            view = new MappedBook(this, row);
+            VIEW.setRelease(current, row, view);
+        }
+        return view;
+    }
+
+    /**
+     * Returns the number of books in the catalogue
+     * @return Number of books
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes any changes to the storage device
+     */
+    public void force() {
+        titles.force();
+        firstNames.force();
+        lastNames.force();
+        years.force();
+        copies.force();
+        genres.force();
+        isbns.force();
+        strings.force();
+        meta.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        titles.close();
+        firstNames.close();
+        lastNames.close();
+        years.close();
+        copies.close();
+        genres.close();
+        isbns.close();
+        strings.close();
+        meta.close();
+    }
+
+    String title(int row) {
+        return strings.get(titles.buffer().getInt(row * 4));
+    }
+
+    synchronized void setTitle(int row, String title) {
+        titles.buffer().putInt(row * 4, intern(title));
+    }
+
+    /**
+     * Returns the dictionary ids of the first and last name of the author, packed in a long
+     */
+    long authorIds(int row) {
+        return (long) firstNames.buffer().getInt(row * 4) << 32 | lastNames.buffer().getInt(row * 4) & 0xFFFFFFFFL;
+    }
+
+    Person author(long ids) {
+        int first = (int) (ids >>> 32);
+        int last = (int) ids;
+        if (first == StringDictionary.NULL && last == StringDictionary.NULL) {
+            return null;
+        }
+        return new Person(strings.get(first), strings.get(last));
+    }
+
+    synchronized void setAuthor(int row, Person author) {
+        firstNames.buffer().putInt(row * 4, intern(author == null ? null : author.getFirstName()));
+        lastNames.buffer().putInt(row * 4, intern(author == null ? null : author.getLastName()));
+    }
+
+    int year(int row) {
+        return years.buffer().getInt(row * 4);
+    }
+
+    void setYear(int row, int year) {
+        years.buffer().putInt(row * 4, year);
+    }
+
+    Book.Genre genre(int row) {
+        int ordinal = genres.buffer().getInt(row * 4);
+        return ordinal < 0 ? null : Book.Genre.values()[ordinal];
+    }
+
+    void setGenre(int row, Book.Genre genre) {
+        genres.buffer().putInt(row * 4, genre == null ? -1 : genre.ordinal());
+    }
+
+    int copies(int row) {
+        return (int) INT.getVolatile(copies.buffer(), row * 4);
+    }
+
+    void setCopies(int row, int n) {
+        INT.setVolatile(copies.buffer(), row * 4, n);
+    }
+
+    void addCopies(int row, int n) {
+        INT.getAndAdd(copies.buffer(), row * 4, n);
+    }
+
+    boolean takeCopy(int row) {
+        ByteBuffer buffer = copies.buffer();
+        int n;
+        do {
+            n = (int) INT.getVolatile(buffer, row * 4);
+            if (n <= 0) {
+                return false;
+            }
+        } while (!INT.compareAndSet(buffer, row * 4, n, n - 1));
+        return true;
+    }
+
+    int takeCopies(int row, int n) {
+        ByteBuffer buffer = copies.buffer();
+        int available;
+        int taken;
+        do {
+            available = (int) INT.getVolatile(buffer, row * 4);
+            taken = Math.min(n, available);
+            if (taken <= 0) {
+                return 0;
+            }
+        } while (!INT.compareAndSet(buffer, row * 4, available, available - taken));
+        return taken;
+    }
+
+    String isbn(int row) {
+        ByteBuffer buffer = isbns.buffer();
+        int offset = row * ISBN_WIDTH;
+        byte length = buffer.get(offset);
+        if (length == ISBN_NULL) {
+            return null;
+        }
+        if (length == ISBN_IN_DICTIONARY) {
+            return strings.get(buffer.getInt(offset + 4));
+        }
+        byte[] chars = new byte[length];
+        buffer.get(offset + 1, chars);
+        return new String(chars, StandardCharsets.US_ASCII);
+    }
+
+    synchronized void setIsbn(int row, String isbn) {
+        try {
+            writeIsbn(row, isbn);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot store ISBN " + isbn, e);
+        }
+    }
+
+    /**
+     * Writes an ISBN inline if it is short ASCII text, as all valid ones are,
+     * or stores it in the dictionary otherwise
+     */
+    private void writeIsbn(int row, String isbn) throws IOException {
+        ByteBuffer buffer = isbns.buffer();
+        int offset = row * ISBN_WIDTH;
+        if (isbn == null) {
+            buffer.put(offset, ISBN_NULL);
+        } else if (isbn.length() < ISBN_WIDTH && StandardCharsets.US_ASCII.newEncoder().canEncode(isbn)) {
+            buffer.put(offset + 1, isbn.getBytes(StandardCharsets.US_ASCII));
+            buffer.put(offset, (byte) isbn.length());
+        } else {
+            buffer.putInt(offset + 4, strings.intern(isbn));
+            buffer.put(offset, ISBN_IN_DICTIONARY);
+        }
+    }
+
+    private int intern(String value) {
+        try {
+            return strings.intern(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot store " + value, e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file mapped into memory that grows by doubling. Growing maps the
+ * file again; the data stays where it is, so buffers handed out before
+ * the file grew still see every write to the part they cover.
+ * Growing must be serialised by the caller.
+ */
+class MappedColumn implements Closeable {
+    private final FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * Opens or creates the given file, making it at least the given size
+     * @param file The file backing the column
+     * @param minimumBytes Initial size of a new file
+     */
+    MappedColumn(Path file, int minimumBytes) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), minimumBytes);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Returns the current mapping, which covers at least every byte written so far
+     * @return The mapped buffer; only absolute gets and puts may be used on it
+     */
+    MappedByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Grows the file so that it holds at least the given number of bytes
+     * @param bytes Number of bytes needed
+     */
+    void ensureCapacity(long bytes) throws IOException {
+        long capacity = buffer.capacity();
+        if (bytes <= capacity) {
+            return;
+        }
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Column cannot grow beyond 2 GB");
+        }
+        while (capacity < bytes) {
+            capacity = Math.min(Integer.MAX_VALUE, capacity * 2);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /**
+     * Writes any changes to the storage device
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+/**
+ * Canonical form of the fields that decide whether two books are the same
+ * work: the title, the first word of the author's first name and the
+ * author's last name, each lower-cased with punctuation dropped and runs of
+ * spaces collapsed, so "The  Hobbit!" by "J. R. R. Tolkien" matches
+ * "the hobbit" by "J Tolkien". The hash is computed once, so comparing two
+ * keys costs a hash comparison and, when the hashes match, three string
+ * comparisons, without allocating.
+ * A key remembers the strings it was made from, so a book can tell in
+ * constant time whether its cached key is still current.
+ */
+public final class MatchKey {
+    private final String title;
+    private final String firstName;
+    private final String lastName;
+    private final int hash;
+
+    // The fields the key was made from, compared by reference
+    final String sourceTitle;
+    final String sourceFirstName;
+    final String sourceLastName;
+
+    private MatchKey(String sourceTitle, String sourceFirstName, String sourceLastName) {
+        this.sourceTitle = sourceTitle;
+        this.sourceFirstName = sourceFirstName;
+        this.sourceLastName = sourceLastName;
+        this.title = normalise(sourceTitle, false);
+        this.firstName = normalise(sourceFirstName, true);
+        this.lastName = normalise(sourceLastName, false);
+        this.hash = (title.hashCode() * 31 + firstName.hashCode()) * 31 + lastName.hashCode();
+    }
+
+    /**
+     * Returns the key of a book with the given title and author
+     * @param title Title of the book, or null
+     * @param author Author of the book, or null
+     * @return The key
+     */
+    public static MatchKey of(String title, Person author) {
+        return author == null
+                ? new MatchKey(title, null, null)
+                : new MatchKey(title, author.getFirstName(), author.getLastName());
+    }
+
+    /**
+     * Tells whether this key was made from the given fields, by reference
+     */
+    boolean isFor(String title, Person author) {
+        return title == sourceTitle
+                && (author == null
+                ? sourceFirstName == null && sourceLastName == null
+                : author.getFirstName() == sourceFirstName && author.getLastName() == sourceLastName);
+    }
+
+    /**
+     * Lower-cases letters and digits, turns every run of other characters
+     * into a single space and trims; keeps only the first word if asked
+     */
+    static String normalise(String text, boolean firstWordOnly) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && result.length() > 0) {
+                    if (firstWordOnly) {
+                        break;
+                    }
+                    result.append(' ');
+                }
+                result.append(Character.toLowerCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return result.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof MatchKey)) return false;
+        MatchKey key = (MatchKey) other;
+        return hash == key.hash
+                && title.equals(key.title)
+                && firstName.equals(key.firstName)
+                && lastName.equals(key.lastName);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return title + " / " + firstName + " " + lastName;
+    }
+}
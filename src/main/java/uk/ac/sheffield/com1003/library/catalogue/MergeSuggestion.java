@@ -0,0 +1,45 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+/**
+ * Two books that are probably the same work, as found by a {@link DuplicateFinder}
+ */
+public final class MergeSuggestion {
+    private final Book keep;
+    private final Book duplicate;
+    private final double score;
+
+    MergeSuggestion(Book keep, Book duplicate, double score) {
+        this.keep = keep;
+        this.duplicate = duplicate;
+        this.score = score;
+    }
+
+    /**
+     * Returns the book to keep, the one that came first in the catalogue
+     * @return The book to keep
+     */
+    public Book getKeep() {
+        return keep;
+    }
+
+    /**
+     * Returns the book whose copies should be merged into the one kept
+     * @return The duplicate book
+     */
+    public Book getDuplicate() {
+        return duplicate;
+    }
+
+    /**
+     * Returns how alike the books are, from 0 to 1
+     * @return The score
+     */
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f: %s <- %s", score, keep.getTitle(), duplicate.getTitle());
+    }
+}
@@ -0,0 +1,248 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import uk.ac.sheffield.com1003.library.Person;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Full-text search over the titles of catalogue items and the names of book authors.
+ * Titles and names are split into lower-case words, and each word maps to the
+ * items containing it. The words are kept sorted, so the last word of a query
+ * also matches every word it is a prefix of, which supports type-ahead search.
+ * The index is kept up to date as a {@link CatalogueListener} of a {@link CatalogueIndex}.
+ */
+public class SearchIndex implements CatalogueListener {
+    private static final int TITLE = 1;
+    private static final int AUTHOR = 2;
+
+    private final TreeMap<String, Map<CatalogueItem, Integer>> postings = new TreeMap<>();
+    private final Map<CatalogueItem, List<String>> indexedWords = new IdentityHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * A search result and its score; higher scores are better matches
+     */
+    public static class Result {
+        private final CatalogueItem item;
+        private final double score;
+
+        Result(CatalogueItem item, double score) {
+            this.item = item;
+            this.score = score;
+        }
+
+        public CatalogueItem getItem() {
+            return item;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    @Override
+    public void itemAdded(CatalogueItem item) {
+        lock.writeLock().lock();
+        try {
+            index(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void itemRemoved(CatalogueItem item) {
+        lock.writeLock().lock();
+        try {
+            unindex(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void titleChanged(CatalogueItem item, String oldTitle) {
+        reindex(item);
+    }
+
+    @Override
+    public void authorChanged(Book book, Person oldAuthor) {
+        reindex(book);
+    }
+
+    private void reindex(CatalogueItem item) {
+        lock.writeLock().lock();
+        try {
+            if (unindex(item)) {
+                index(item);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(CatalogueItem item) {
+        List<String> words = new ArrayList<>();
+        addWords(item.getTitle(), TITLE, item, words);
+        if (item instanceof Book) {
+            Person author = ((Book) item).getAuthor();
+            if (author != null) {
+                addWords(author.getFirstName(), AUTHOR, item, words);
+                addWords(author.getLastName(), AUTHOR, item, words);
+            }
+        }
+        indexedWords.put(item, words);
+    }
+
+    private void addWords(String text, int field, CatalogueItem item, List<String> words) {
+        for (String word : tokenize(text)) {
+            postings.computeIfAbsent(word, w -> new IdentityHashMap<>(2)).merge(item, field, (a, b) -> a | b);
+            words.add(word);
+        }
+    }
+
+    private boolean unindex(CatalogueItem item) {
+        List<String> words = indexedWords.remove(item);
+        if (words == null) {
+            return false;
+        }
+        for (String word : words) {
+            Map<CatalogueItem, Integer> items = postings.get(word);
+            if (items != null && items.remove(item) != null && items.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches titles and author names for the words of the query. The last word
+     * also matches words it is a prefix of. Items matching more query words rank
+     * first; matches in the title count more than matches in the author name, and
+     * whole-word matches count more than prefix matches.
+     * @param query Words to search for
+     * @param limit Maximum number of results
+     * @return Results ordered from best to worst match
+     * @throws IllegalArgumentException if the limit is less than one
+     */
+    public List<Result> search(String query, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Search limit must be positive");
+        }
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<CatalogueItem, double[]> scores = new IdentityHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                Map<CatalogueItem, double[]> wordScores = new IdentityHashMap<>();
+                if (i == words.size() - 1) {
+                    for (Map.Entry<String, Map<CatalogueItem, Integer>> entry : prefixRange(word).entrySet()) {
+                        score(entry.getValue(), entry.getKey().length() == word.length() ? 1.0 : 0.5, wordScores);
+                    }
+                } else {
+                    Map<CatalogueItem, Integer> items = postings.get(word);
+                    if (items != null) {
+                        score(items, 1.0, wordScores);
+                    }
+                }
+                // Each matched query word adds at least 10, so more matched words always rank higher
+                for (Map.Entry<CatalogueItem, double[]> entry : wordScores.entrySet()) {
+                    scores.computeIfAbsent(entry.getKey(), k -> new double[1])[0] += 10 + entry.getValue()[0];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Comparator<Result> worstFirst = Comparator.comparingDouble(Result::getScore)
+                .thenComparing(result -> result.getItem().getTitle(), Comparator.reverseOrder());
+        // Sized by the matches, not the limit, which may be far larger
+        PriorityQueue<Result> best = new PriorityQueue<>(Math.min(limit, scores.size()) + 1, worstFirst);
+        for (Map.Entry<CatalogueItem, double[]> entry : scores.entrySet()) {
+            best.add(new Result(entry.getKey(), entry.getValue()[0]));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Result> results = new ArrayList<>(best);
+        results.sort(worstFirst.reversed());
+        return results;
+    }
+
+    /**
+     * Records for each item the best score of any word matching the same query word
+     */
+    private static void score(Map<CatalogueItem, Integer> items, double weight, Map<CatalogueItem, double[]> wordScores) {
+        for (Map.Entry<CatalogueItem, Integer> entry : items.entrySet()) {
+            double fieldWeight = (entry.getValue() & TITLE) != 0 ? 2.0 : 1.0;
+            double[] best = wordScores.computeIfAbsent(entry.getKey(), k -> new double[1]);
+            best[0] = Math.max(best[0], weight * fieldWeight);
+        }
+    }
+
+    /**
+     * Returns the indexed words starting with the given prefix, for type-ahead suggestions
+     * @param prefix Start of the word
+     * @param limit Maximum number of words
+     * @return Words in alphabetical order
+     */
+    public List<String> suggest(String prefix, int limit) {
+        List<String> words = tokenize(prefix);
+        List<String> result = new ArrayList<>();
+        if (words.isEmpty()) {
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            for (String word : prefixRange(words.get(words.size() - 1)).keySet()) {
+                if (result.size() == limit) {
+                    break;
+                }
+                result.add(word);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private SortedMap<String, Map<CatalogueItem, Integer>> prefixRange(String prefix) {
+        return postings.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits
+     * @param text Text to split; may be null
+     * @return List of words
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start == -1) {
+                start = i;
+            } else if (!wordChar && start != -1) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+}
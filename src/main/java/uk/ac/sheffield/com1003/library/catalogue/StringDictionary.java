@@ -0,0 +1,155 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Interned strings kept in memory-mapped files. Each distinct string is
+ * stored once as UTF-8 and is identified by its offset in the data file,
+ * so equal strings always get the same id. A hash table of offsets, also
+ * mapped, finds the id of a string without keeping any of them on the heap.
+ * Adding strings must be serialised by the caller; reading them need not be.
+ */
+class StringDictionary implements Closeable {
+    /**
+     * Id of a null string
+     */
+    static final int NULL = -1;
+
+    private static final int HEADER = 8;  // bytes used, number of strings
+    private static final int ENTRY_HEADER = 8;  // hash, length
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final MappedColumn data;
+    private final MappedColumn table;
+    private int used;
+    private int count;
+    private int slots;
+
+    StringDictionary(Path dataFile, Path tableFile) throws IOException {
+        this.data = new MappedColumn(dataFile, 1 << 16);
+        this.table = new MappedColumn(tableFile, INITIAL_SLOTS * 4);
+        ByteBuffer buffer = data.buffer();
+        this.used = Math.max(HEADER, buffer.getInt(0));
+        this.count = buffer.getInt(4);
+        this.slots = table.buffer().capacity() / 4;
+    }
+
+    /**
+     * Returns the id of the given string, adding it if it is not in the dictionary yet
+     * @param value The string, which may be null
+     * @return Id of the string
+     */
+    int intern(String value) throws IOException {
+        if (value == null) {
+            return NULL;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = value.hashCode();
+        int slot = find(bytes, hash);
+        int id = table.buffer().getInt(slot * 4);
+        if (id != 0) {
+            return id;
+        }
+        id = used;
+        data.ensureCapacity((long) used + ENTRY_HEADER + bytes.length);
+        ByteBuffer buffer = data.buffer();
+        buffer.putInt(id, hash);
+        buffer.putInt(id + 4, bytes.length);
+        buffer.put(id + ENTRY_HEADER, bytes);
+        used += ENTRY_HEADER + bytes.length;
+        count++;
+        buffer.putInt(0, used);
+        buffer.putInt(4, count);
+        table.buffer().putInt(slot * 4, id);
+        if (count * 2 > slots) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the string with the given id
+     * @param id Id returned by {@link StringDictionary#intern(String)}
+     * @return The string
+     */
+    String get(int id) {
+        if (id == NULL) {
+            return null;
+        }
+        ByteBuffer buffer = data.buffer();
+        byte[] bytes = new byte[buffer.getInt(id + 4)];
+        buffer.get(id + ENTRY_HEADER, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of distinct strings stored
+     * @return Number of strings
+     */
+    int size() {
+        return count;
+    }
+
+    private int find(byte[] bytes, int hash) {
+        ByteBuffer buffer = data.buffer();
+        ByteBuffer slotBuffer = table.buffer();
+        int mask = slots - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = slotBuffer.getInt(slot * 4);
+            if (id == 0 || buffer.getInt(id) == hash && equalsAt(buffer, id, bytes)) {
+                return slot;
+            }
+        }
+    }
+
+    private static boolean equalsAt(ByteBuffer buffer, int id, byte[] bytes) {
+        if (buffer.getInt(id + 4) != bytes.length) {
+            return false;
+        }
+        return buffer.slice(id + ENTRY_HEADER, bytes.length).equals(ByteBuffer.wrap(bytes));
+    }
+
+    private void rehash() throws IOException {
+        int[] old = new int[slots];
+        table.buffer().asIntBuffer().get(old);
+        slots *= 2;
+        table.ensureCapacity(slots * 4L);
+        ByteBuffer slotBuffer = table.buffer();
+        ByteBuffer buffer = data.buffer();
+        for (int i = 0; i < slots; i++) {
+            slotBuffer.putInt(i * 4, 0);
+        }
+        int mask = slots - 1;
+        for (int id : old) {
+            if (id != 0) {
+                int slot = spread(buffer.getInt(id)) & mask;
+                while (slotBuffer.getInt(slot * 4) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slotBuffer.putInt(slot * 4, id);
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Writes any changes to the storage device
+     */
+    void force() {
+        data.force();
+        table.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+        table.close();
+    }
+}
@@ -0,0 +1,129 @@
+package uk.ac.sheffield.com1003.library.catalogue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The items of a {@link CatalogueIndex} in title order, kept up to date as
+ * items are added, removed and renamed. Items with the same title stay in
+ * the order they were added and items without a title come last.
+ * Listing k items takes O(k) once the starting point is found, and never
+ * sorts or reorders the catalogue itself.
+ * Reads take no lock and see a weakly consistent view of concurrent changes.
+ */
+public class TitleIndex implements CatalogueListener, Iterable<CatalogueItem> {
+    private static final Comparator<Key> ORDER = Comparator
+            .comparing((Key key) -> key.title, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparingLong(key -> key.sequence);
+
+    /**
+     * Position of an item in the order: the title it was indexed under,
+     * and when it was added to break ties
+     */
+    private static final class Key {
+        private final String title;
+        private final long sequence;
+        private final CatalogueItem item;
+
+        private Key(String title, long sequence, CatalogueItem item) {
+            this.title = title;
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+
+    private final NavigableSet<Key> order = new ConcurrentSkipListSet<>(ORDER);
+    private final Map<CatalogueItem, Key> keys = new IdentityHashMap<>();
+    private long nextSequence;
+
+    @Override
+    public synchronized void itemAdded(CatalogueItem item) {
+        if (!keys.containsKey(item)) {
+            Key key = new Key(item.getTitle(), nextSequence++, item);
+            keys.put(item, key);
+            order.add(key);
+        }
+    }
+
+    @Override
+    public synchronized void itemRemoved(CatalogueItem item) {
+        Key key = keys.remove(item);
+        if (key != null) {
+            order.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void titleChanged(CatalogueItem item, String oldTitle) {
+        Key key = keys.get(item);
+        if (key != null) {
+            order.remove(key);
+            Key renamed = new Key(item.getTitle(), key.sequence, item);
+            keys.put(item, renamed);
+            order.add(renamed);
+        }
+    }
+
+    /**
+     * Returns an iterator over the items in title order
+     * @return Iterator over the items
+     */
+    @Override
+    public Iterator<CatalogueItem> iterator() {
+        Iterator<Key> keys = order.iterator();
+        return new Iterator<CatalogueItem>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public CatalogueItem next() {
+                return keys.next().item;
+            }
+        };
+    }
+
+    /**
+     * Returns a page of items in title order
+     * @param after Last item of the previous page, or null for the first page
+     * @param limit Maximum number of items to return
+     * @return Items following the given one, in title order
+     */
+    public List<CatalogueItem> page(CatalogueItem after, int limit) {
+        Iterable<Key> from = order;
+        if (after != null) {
+            Key key;
+            synchronized (this) {
+                key = keys.get(after);
+            }
+            if (key == null) {
+                // The item has since been removed; carry on from its title
+                key = new Key(after.getTitle(), Long.MAX_VALUE, after);
+            }
+            from = order.tailSet(key, false);
+        }
+        List<CatalogueItem> result = new ArrayList<>(Math.min(limit, 64));
+        for (Key key : from) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(key.item);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of items in the index
+     * @return Number of items
+     */
+    public int size() {
+        return order.size();
+    }
+}
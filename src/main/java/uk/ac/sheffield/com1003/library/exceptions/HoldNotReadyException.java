@@ -0,0 +1,7 @@
+package uk.ac.sheffield.com1003.library.exceptions;
+
+public class HoldNotReadyException extends Exception {
+    public HoldNotReadyException(String message) {
+        super(message);
+    }
+}
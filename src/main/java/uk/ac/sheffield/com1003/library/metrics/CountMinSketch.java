@@ -0,0 +1,76 @@
+package uk.ac.sheffield.com1003.library.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate counts of a stream of keys in a fixed amount of memory. Each key
+ * is counted in one cell of each of a few rows, chosen by a different hash per
+ * row, and its estimate is the smallest of those cells. Estimates are never
+ * too low, and too high by at most 2/width of the total count in most cases.
+ * Adding is lock-free and allocates nothing.
+ */
+public class CountMinSketch {
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+            0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L
+    };
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    /**
+     * Constructor that takes the shape of the sketch
+     * @param depth Number of rows, from 1 to 6; more rows make a wrong estimate less likely
+     * @param width Number of cells per row, rounded up to a power of two; wider rows make estimates closer
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("Depth must be between 1 and " + SEEDS.length);
+        }
+        int columns = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = columns - 1;
+        this.cells = new AtomicLongArray(depth * columns);
+    }
+
+    /**
+     * Adds to the count of a key
+     * @param key The key
+     * @param n Amount to add
+     */
+    public void add(long key, long n) {
+        for (int row = 0; row < depth; row++) {
+            cells.addAndGet(cell(row, key), n);
+        }
+    }
+
+    /**
+     * Returns the estimated count of a key
+     * @param key The key
+     * @return Estimated count, never less than the true count
+     */
+    public long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, cells.get(cell(row, key)));
+        }
+        return min;
+    }
+
+    /**
+     * Resets every count to zero
+     */
+    public void clear() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int cell(int row, long key) {
+        long h = (key ^ SEEDS[row]) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        h ^= h >>> 29;
+        return row * (mask + 1) + (int) (h & mask);
+    }
+}
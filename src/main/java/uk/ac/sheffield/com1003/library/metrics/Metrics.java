@@ -0,0 +1,112 @@
+package uk.ac.sheffield.com1003.library.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of named counters and latency histograms. Counters are
+ * {@link LongAdder}s, which spread updates from different threads over
+ * separate cells, so counting costs a few nanoseconds even under contention.
+ * Instruments are created on first use and should be looked up once and
+ * kept, rather than looked up on every update.
+ * The registry can be published over JMX and passed to a
+ * {@link MetricsReporter} at a fixed rate.
+ */
+public class Metrics {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Returns the counter with the given name, creating it if needed
+     * @param name Name of the counter
+     * @return The counter
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed
+     * @param name Name of the histogram
+     * @return The histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Returns the current value of every counter
+     * @return Counter values by name, in name order
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    /**
+     * Returns every histogram
+     * @return Histograms by name, in name order
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * Publishes the registry as an MBean on the platform MBean server
+     * @param objectName JMX name to register it under, e.g. "uk.ac.sheffield.library:type=Metrics"
+     * @throws JMException if the name is invalid or already taken
+     */
+    public void registerMBean(String objectName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), new ObjectName(objectName));
+    }
+
+    /**
+     * Starts passing the registry to the given reporter on a background thread at a fixed rate
+     * @param reporter The reporter
+     * @param period Time between reports
+     * @param unit Unit of the period
+     */
+    public synchronized void startReporting(MetricsReporter reporter, long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Reporting already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> reporter.report(this), period, period, unit);
+    }
+
+    /**
+     * Stops the reports started by {@link Metrics#startReporting(MetricsReporter, long, TimeUnit)}
+     */
+    public synchronized void stopReporting() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Returns every counter and histogram, one per line
+     * @return A summary of the registry
+     */
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        getCounters().forEach((name, value) -> summary.append(name).append(": ").append(value).append('\n'));
+        getHistograms().values().forEach(histogram -> summary.append(histogram).append('\n'));
+        return summary.toString();
+    }
+}
@@ -0,0 +1,14 @@
+package uk.ac.sheffield.com1003.library.metrics;
+
+/**
+ * Receives the metrics of a {@link Metrics} registry at regular intervals,
+ * e.g. to print them or send them to a monitoring system
+ */
+public interface MetricsReporter {
+
+    /**
+     * Called on the reporting thread with the registry to report
+     * @param metrics The registry; its values keep changing while this runs
+     */
+    void report(Metrics metrics);
+}
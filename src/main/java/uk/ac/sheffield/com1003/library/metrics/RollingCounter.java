@@ -0,0 +1,92 @@
+package uk.ac.sheffield.com1003.library.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in fixed periods of time, such as hours or days, keeping the
+ * most recent periods in a ring. Each slot packs the number of the period it
+ * counts with its count in a single long, so moving a slot on to a new period
+ * and counting in it is one atomic update: counting is lock-free, allocates
+ * nothing and never scans. Periods are numbered from the epoch, in UTC.
+ */
+public class RollingCounter {
+    private static final int COUNT_BITS = 40;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final long periodMillis;
+    private final AtomicLongArray slots;
+
+    /**
+     * Constructor that takes the length of a period and how many to keep
+     * @param periodMillis Length of a period in milliseconds
+     * @param periods Number of most recent periods to keep
+     */
+    public RollingCounter(long periodMillis, int periods) {
+        this.periodMillis = periodMillis;
+        this.slots = new AtomicLongArray(periods);
+    }
+
+    /**
+     * Counts an event at the given time. Events older than the periods kept are ignored.
+     * @param timeMillis Time of the event in milliseconds since the epoch
+     */
+    public void increment(long timeMillis) {
+        long period = timeMillis / periodMillis;
+        int slot = (int) (period % slots.length());
+        while (true) {
+            long packed = slots.get(slot);
+            long current = packed >>> COUNT_BITS;
+            long next;
+            if (current == period) {
+                next = packed + 1;
+            } else if (current < period) {
+                next = (period << COUNT_BITS) | 1; // The slot moves on to the new period
+            } else {
+                return;
+            }
+            if (slots.compareAndSet(slot, packed, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the count of the period holding the given time
+     * @param timeMillis Any time in the period, in milliseconds since the epoch
+     * @return Number of events, or 0 if the period is no longer kept
+     */
+    public long get(long timeMillis) {
+        long period = timeMillis / periodMillis;
+        long packed = slots.get((int) (period % slots.length()));
+        return packed >>> COUNT_BITS == period ? packed & COUNT_MASK : 0;
+    }
+
+    /**
+     * Returns the counts of the most recent periods, oldest first
+     * @param n Number of periods, at most the number kept
+     * @param nowMillis Current time in milliseconds since the epoch
+     * @return Counts of the n periods ending with the current one
+     */
+    public long[] recent(int n, long nowMillis) {
+        int periods = Math.min(n, slots.length());
+        long[] result = new long[periods];
+        for (int i = 0; i < periods; i++) {
+            result[i] = get(nowMillis - (long) (periods - 1 - i) * periodMillis);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total count of the most recent periods
+     * @param n Number of periods, at most the number kept
+     * @param nowMillis Current time in milliseconds since the epoch
+     * @return Number of events in the n periods ending with the current one
+     */
+    public long total(int n, long nowMillis) {
+        long total = 0;
+        for (long count : recent(n, nowMillis)) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,259 @@
+package uk.ac.sheffield.com1003.library.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import uk.ac.sheffield.com1003.library.CirculationResult;
+import uk.ac.sheffield.com1003.library.Library;
+import uk.ac.sheffield.com1003.library.Loan;
+import uk.ac.sheffield.com1003.library.LoanRequest;
+import uk.ac.sheffield.com1003.library.Person;
+import uk.ac.sheffield.com1003.library.ReportWriter;
+import uk.ac.sheffield.com1003.library.bibtex.BibtexImporter;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/JSON front end for a {@link Library}, on the JDK's built-in server.
+ * <ul>
+ *     <li>GET /search?q=words&amp;limit=n searches titles and authors, returning
+ *     at most n items (10 by default, {@value #MAX_SEARCH_LIMIT} at most)</li>
+ *     <li>POST /loans?item=titleOrISBN&amp;user=First%20Last loans an item</li>
+ *     <li>GET /loans/{id} returns a loan</li>
+ *     <li>POST /loans/{id}/return returns a loan</li>
+ *     <li>POST /loans/{id}/extend?days=n extends a loan</li>
+ * </ul>
+ * Each request runs on a virtual thread of its own, so a request waiting on
+ * a lock or on the network holds no platform thread and a burst of kiosks
+ * never exhausts the threads of the server.
+ * Items and loans are written in the JSON layout of {@link ReportWriter}.
+ */
+public class LibraryServer {
+    /**
+     * Largest number of items a search returns; larger limits are reduced to it
+     */
+    public static final int MAX_SEARCH_LIMIT = 100;
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Constructor that takes the library to serve and where to listen
+     * @param library The library
+     * @param address Address to listen on; port 0 picks a free port
+     * @throws IOException if the address cannot be bound
+     */
+    public LibraryServer(Library library, InetSocketAddress address) throws IOException {
+        this.library = library;
+        this.server = HttpServer.create(address, 4096);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Turns off Nagle's algorithm for servers created from now on, unless the
+     * sun.net.httpserver.nodelay property was set on the command line.
+     * Responses are written as headers then body, and without this the body
+     * is held back until the client's delayed acknowledgement, about 40ms.
+     * The property is read once by the JDK, so call this before creating the first server.
+     */
+    static void disableNagle() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and waits for those in progress to finish
+     * @param delaySeconds Longest time to wait for requests in progress
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on
+     * @return The port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            route(exchange);
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, error("Invalid number: " + e.getMessage()));
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        if (path.length == 2 && path[1].equals("search") && method.equals("GET")) {
+            search(exchange, query);
+        } else if (path.length == 2 && path[1].equals("loans") && method.equals("POST")) {
+            loan(exchange, query);
+        } else if (path.length == 3 && path[1].equals("loans") && method.equals("GET")) {
+            Loan loan = library.getLoanLedger().getLoan(Long.parseLong(path[2]));
+            respond(exchange, loan == null ? 404 : 200, loan == null ? error("Loan not found") : loanJson(loan));
+        } else if (path.length == 4 && path[1].equals("loans") && method.equals("POST")) {
+            Loan loan = library.getLoanLedger().getLoan(Long.parseLong(path[2]));
+            if (loan == null) {
+                respond(exchange, 404, error("Loan not found"));
+            } else if (path[3].equals("return")) {
+                returnLoan(exchange, loan);
+            } else if (path[3].equals("extend")) {
+                extendLoan(exchange, loan, Integer.parseInt(query.getOrDefault("days", "0")));
+            } else {
+                respond(exchange, 404, error("Unknown action"));
+            }
+        } else {
+            respond(exchange, 404, error("Unknown endpoint"));
+        }
+    }
+
+    private void search(HttpExchange exchange, Map<String, String> query) throws IOException {
+        int limit;
+        try {
+            limit = Integer.parseInt(query.getOrDefault("limit", "10"));
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit < 1) {
+            respond(exchange, 400, error("Parameter limit must be a positive number"));
+            return;
+        }
+        List<CatalogueItem> items = library.search(query.getOrDefault("q", ""), Math.min(limit, MAX_SEARCH_LIMIT));
+        StringBuilder json = new StringBuilder();
+        new ReportWriter(json, ReportWriter.Format.JSON).writeItems(items);
+        respond(exchange, 200, json.toString());
+    }
+
+    private void loan(HttpExchange exchange, Map<String, String> query) throws IOException {
+        String item = query.get("item");
+        String user = query.get("user");
+        int space = user == null ? -1 : user.indexOf(' ');
+        if (item == null || space < 0) {
+            respond(exchange, 400, error("Parameters item and user (first and last name) are required"));
+            return;
+        }
+        Person person = new Person(user.substring(0, space), user.substring(space + 1));
+        // The batch form reports failures as results, so no exception is built per refused loan
+        CirculationResult result = library.loanItems(List.of(new LoanRequest(item, person))).get(0);
+        switch (result.getStatus()) {
+            case LOANED:
+                respond(exchange, 201, loanJson(result.getLoan()));
+                break;
+            case NOT_FOUND:
+                respond(exchange, 404, error("Item not found"));
+                break;
+            default:
+                respond(exchange, 409, error("No copy available"));
+                break;
+        }
+    }
+
+    private void returnLoan(HttpExchange exchange, Loan loan) throws IOException {
+        CirculationResult result = library.returnItems(List.of(loan)).get(0);
+        if (result.isSuccess()) {
+            respond(exchange, 200, loanJson(loan));
+        } else {
+            respond(exchange, 409, error("Item has already been returned"));
+        }
+    }
+
+    private void extendLoan(HttpExchange exchange, Loan loan, int days) throws IOException {
+        try {
+            library.extendLoan(loan, days);
+            respond(exchange, 200, loanJson(loan));
+        } catch (ItemAlreadyReturnedException e) {
+            respond(exchange, 409, error(e.getMessage()));
+        }
+    }
+
+    private static String loanJson(Loan loan) throws IOException {
+        StringBuilder json = new StringBuilder();
+        new ReportWriter(json, ReportWriter.Format.JSON).writeReceipt(loan);
+        return json.toString();
+    }
+
+    private static String error(String message) throws IOException {
+        StringBuilder json = new StringBuilder();
+        new ReportWriter(json, ReportWriter.Format.JSON).writeError(message);
+        return json.toString();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                String name = equals < 0 ? pair : pair.substring(0, equals);
+                String value = equals < 0 ? "" : pair.substring(equals + 1);
+                query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Serves the catalogue of src/main/resources/Lee60.bib
+     * @param args Optional port to listen on, 8080 by default
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        disableNagle();
+        Library library = new Library("Sheffield Central Library");
+        Path catalogue = Path.of("src/main/resources/Lee60.bib");
+        if (Files.exists(catalogue)) {
+            System.out.println(new BibtexImporter(library).importFile(catalogue));
+        }
+        LibraryServer server = new LibraryServer(library, new InetSocketAddress(port));
+        server.start();
+        System.out.println("Serving " + library.getName() + " on port " + server.getPort());
+    }
+}
@@ -0,0 +1,201 @@
+package uk.ac.sheffield.com1003.library.server;
+
+import uk.ac.sheffield.com1003.library.Library;
+import uk.ac.sheffield.com1003.library.Person;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Simulates many kiosk sessions against a {@link LibraryServer}. Each session
+ * repeatedly searches for a book, borrows it and returns it until the run ends.
+ * Sessions are asynchronous chains of requests rather than threads, so tens of
+ * thousands of them can be open at once from a single client process.
+ * Run with --url to target a running server; otherwise an embedded server
+ * with a generated catalogue is started.
+ */
+public class LoadGenerator {
+    private static final Pattern LOAN_ID = Pattern.compile("^\\{\"id\":(\\d+)");
+
+    private final HttpClient client;
+    private final URI base;
+    private final int titles;
+    private final LatencyHistogram latency = new LatencyHistogram("request");
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private volatile long deadline;
+
+    /**
+     * Constructor that takes the server to load and the titles to ask for
+     * @param base Base URI of the server, e.g. http://localhost:8080
+     * @param titles Number of generated titles "Title 0" to "Title n-1" sessions pick from
+     */
+    public LoadGenerator(URI base, int titles) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.base = base;
+        this.titles = titles;
+    }
+
+    /**
+     * Runs the given number of concurrent sessions for the given duration
+     * @param sessions Number of concurrent kiosk sessions
+     * @param duration How long to run for
+     * @return Number of sessions (search, loan and return) completed
+     */
+    public long run(int sessions, Duration duration) {
+        deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong completed = new AtomicLong();
+        List<CompletableFuture<Void>> running = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            Person user = new Person("Kiosk", "User" + i);
+            running.add(session(user, completed));
+        }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+        return completed.get();
+    }
+
+    private CompletableFuture<Void> session(Person user, AtomicLong completed) {
+        if (System.nanoTime() >= deadline) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String title = "Title " + ThreadLocalRandom.current().nextInt(titles);
+        String name = user.getFirstName() + " " + user.getLastName();
+        return send("GET", "/search?q=" + encode(title) + "&limit=5")
+                .thenCompose(search -> send("POST", "/loans?item=" + encode(title) + "&user=" + encode(name)))
+                .thenCompose(loan -> {
+                    Matcher id = LOAN_ID.matcher(loan.body());
+                    if (loan.statusCode() != 201 || !id.find()) {
+                        refused.incrementAndGet();
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return send("POST", "/loans/" + id.group(1) + "/return").thenAccept(r -> completed.incrementAndGet());
+                })
+                .handle((result, failure) -> {
+                    if (failure != null) {
+                        errors.incrementAndGet();
+                    }
+                    return null;
+                })
+                .thenCompose(ignored -> session(user, completed));
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(String method, String path) {
+        HttpRequest request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofSeconds(30))
+                .build();
+        long start = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, failure) -> latency.recordSince(start));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * Returns the latencies of every request sent
+     * @return The histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of requests that failed without a response
+     * @return Number of failed requests
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Returns the number of loans refused because no copy was available
+     * @return Number of refused loans
+     */
+    public long getRefused() {
+        return refused.get();
+    }
+
+    /**
+     * Creates a library holding the given number of generated titles
+     * @param titles Number of titles
+     * @param copies Number of copies of each title
+     * @return The library
+     */
+    public static Library generateLibrary(int titles, int copies) {
+        Library library = new Library("Load Test Library");
+        List<CatalogueItem> items = new ArrayList<>(titles);
+        for (int i = 0; i < titles; i++) {
+            items.add(new Book("Title " + i, new Person("Author", "Number" + i), null, 2000 + i % 25, null, copies));
+        }
+        library.addItems(items);
+        return library;
+    }
+
+    /**
+     * Runs a load test
+     * @param args --url base URI of the server, --sessions number of concurrent sessions,
+     *             --duration seconds to run for and --titles number of titles to ask for
+     */
+    public static void main(String[] args) throws IOException {
+        String url = null;
+        int sessions = 10_000;
+        int seconds = 30;
+        int titles = 1_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url": url = args[i + 1]; break;
+                case "--sessions": sessions = Integer.parseInt(args[i + 1]); break;
+                case "--duration": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--titles": titles = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        LibraryServer server = null;
+        if (url == null) {
+            LibraryServer.disableNagle();
+            server = new LibraryServer(generateLibrary(titles, Math.max(1, sessions / titles + 1)), new InetSocketAddress("localhost", 0));
+            server.start();
+            url = "http://localhost:" + server.getPort();
+        }
+        System.out.println("Running " + sessions + " sessions against " + url + " for " + seconds + "s");
+        LoadGenerator generator = new LoadGenerator(URI.create(url), titles);
+        long start = System.nanoTime();
+        long completed = generator.run(sessions, Duration.ofSeconds(seconds));
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram latency = generator.getLatency();
+        System.out.printf("Sessions completed: %d (%.0f/s)%n", completed, completed / elapsed);
+        System.out.printf("Requests: %d (%.0f/s), errors: %d, refused loans: %d%n",
+                latency.getCount(), latency.getCount() / elapsed, generator.getErrors(), generator.getRefused());
+        System.out.printf("Latency ms: mean %.2f, p50 %.2f, p99 %.2f, max %.2f%n",
+                latency.getMean() / 1e6, latency.getPercentile(50) / 1e6,
+                latency.getPercentile(99) / 1e6, latency.getMax() / 1e6);
+        if (server != null) {
+            server.stop(1);
+        }
+    }
+}
@@ -1,9 +1,1006 @@
 package uk.ac.sheffield.com1003.library;
 
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.ac.sheffield.com1003.library.bibtex.BibtexImporter;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+import uk.ac.sheffield.com1003.library.catalogue.CatalogueItem;
+import uk.ac.sheffield.com1003.library.catalogue.DuplicateFinder;
+import uk.ac.sheffield.com1003.library.catalogue.Isbn;
+import uk.ac.sheffield.com1003.library.catalogue.MappedCatalogue;
+import uk.ac.sheffield.com1003.library.catalogue.MergeSuggestion;
+import uk.ac.sheffield.com1003.library.exceptions.HoldNotReadyException;
+import uk.ac.sheffield.com1003.library.exceptions.ItemAlreadyReturnedException;
+import uk.ac.sheffield.com1003.library.exceptions.ItemNotFoundException;
+import uk.ac.sheffield.com1003.library.exceptions.NoCopyAvailableException;
+import uk.ac.sheffield.com1003.library.metrics.CountMinSketch;
+import uk.ac.sheffield.com1003.library.metrics.LatencyHistogram;
+import uk.ac.sheffield.com1003.library.metrics.Metrics;
+import uk.ac.sheffield.com1003.library.metrics.RollingCounter;
+import uk.ac.sheffield.com1003.library.server.LibraryServer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 /**
  * If you wish, write your own JUnit tests in this class.
  * See {@link TestLibrary} for reference.
  */
-public class MyTests {
+public class MyTests extends TestLibraryBase {
+
+    /**
+     * Waits for another thread to make the condition true, failing after ten seconds rather than hanging
+     */
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @DisplayName("Items can be loaned by title or ISBN after being renamed")
+    @Test
+    public void testIndexFollowsSetters() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        library.addItem(book);
+
+        book.setTitle("Book 2");
+        book.setIsbn("9781111111111");
+
+        assertThrows(ItemNotFoundException.class, () -> library.loanItem("Book 1", new Person("Jose Rojas")));
+        assertThrows(ItemNotFoundException.class, () -> library.loanItem("9780136083238", new Person("Jose Rojas")));
+        assertSame(book, library.loanItem("Book 2", new Person("Jose Rojas")).getItem());
+        assertSame(book, library.loanItem("9781111111111", new Person("Jose Rojas")).getItem());
+    }
+
+    @DisplayName("Removing the last copy removes the item from the index")
+    @Test
+    public void testRemoveLastCopy() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBookAlt();
+        library.addItem(book);
+
+        library.removeItem(book.getIsbn());
+
+        assertEquals(0, library.getCatalogue().length);
+        assertThrows(ItemNotFoundException.class, () -> library.removeItem(book.getTitle()));
+    }
+
+    @DisplayName("The catalogue grows beyond its initial capacity and reuses freed slots")
+    @Test
+    public void testCatalogueGrows() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        for (int i = 0; i < 250; i++) {
+            assertTrue(library.addItem(new Book("Book " + i, new Person("John", "Doe"), "isbn-" + i, 2000, Book.Genre.UNSPECIFIED, 1)));
+        }
+        assertEquals(250, library.getCatalogue().length);
+
+        library.removeItem("Book 7");
+        library.removeItem("isbn-42");
+        assertEquals(248, library.getCatalogue().length);
+
+        library.addItem(createBook());
+        assertEquals(249, library.getCatalogue().length);
+        assertSame(library.getCatalogue(), library.getCatalogue());
+    }
+
+    @DisplayName("The loan ledger indexes loans by user, item and due date")
+    @Test
+    public void testLoanLedger() throws Exception {
+        Library library = new Library("Sheffield Central Library", -1);
+        Book book = createBook();
+        Book bookAlt = createBookAlt();
+        library.addItem(book);
+        library.addItem(bookAlt);
+        Person jose = new Person("Jose Rojas");
+        Person jane = new Person("Jane Doe");
+
+        Loan first = library.loanItem(book.getIsbn(), jose);
+        Loan second = library.loanItem(bookAlt.getIsbn(), jose);
+        Loan third = library.loanItem(book.getIsbn(), jane);
+        library.extendLoan(first, 5);
+        library.returnItem(third);
+
+        LoanLedger ledger = library.getLoanLedger();
+        assertEquals(3, ledger.size());
+        assertEquals(2, ledger.getLoans(new Person("Jose", "Rojas")).size());
+        assertEquals(2, ledger.getLoans(book).size());
+        assertEquals(1, ledger.getActiveLoans(book).size());
+        assertSame(first, ledger.getActiveLoans(book).get(0));
+        assertEquals(List.of(second), ledger.getOverdueLoans(java.time.LocalDateTime.now()));
+        assertSame(third, ledger.getLoan(third.getId()));
+    }
+
+    @DisplayName("The overdue sweeper only reports loans which became overdue since the last sweep")
+    @Test
+    public void testOverdueSweeper() throws Exception {
+        Library library = new Library("Sheffield Central Library", 1);
+        Book book = createBook();
+        library.addItem(book);
+        Loan first = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        Loan second = library.loanItem(book.getIsbn(), new Person("Jane Doe"));
+        library.extendLoan(second, 2);
+
+        List<Loan> reported = new ArrayList<>();
+        java.time.ZoneId zone = java.time.ZoneId.systemDefault();
+        OverdueSweeper inTwoDays = new OverdueSweeper(library.getLoanLedger(), reported::add,
+                java.time.Clock.fixed(java.time.LocalDateTime.now().plusDays(2).atZone(zone).toInstant(), zone));
+        assertEquals(1, inTwoDays.sweep());
+        assertEquals(0, inTwoDays.sweep());
+        assertEquals(List.of(first), reported);
+
+        OverdueSweeper inFiveDays = new OverdueSweeper(library.getLoanLedger(), reported::add,
+                java.time.Clock.fixed(java.time.LocalDateTime.now().plusDays(5).atZone(zone).toInstant(), zone));
+        library.returnItem(first);
+        assertEquals(1, inFiveDays.sweep());
+        assertSame(second, reported.get(1));
+    }
+
+    @DisplayName("Concurrent loans never hand out more copies than exist")
+    @Test
+    public void testConcurrentLoansOfLastCopies() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        library.addItem(book);
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger loaned = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    library.loanItem(book.getIsbn(), new Person("Jose", "Rojas"));
+                    loaned.incrementAndGet();
+                } catch (NoCopyAvailableException e) {
+                    // Expected for all but two of the threads
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(2, loaned.get());
+        assertEquals(0, book.getCopies());
+        assertEquals(2, library.getLoanLedger().activeCount());
+    }
+
+    @DisplayName("Copy counts stay correct under heavy concurrent loan and return traffic")
+    @Test
+    public void testConcurrentLoanReturnStress() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        int titles = 8;
+        int copies = 3;
+        Book[] books = new Book[titles];
+        for (int i = 0; i < titles; i++) {
+            books[i] = new Book("Book " + i, new Person("John", "Doe"), "isbn-" + i, 2000, Book.Genre.UNSPECIFIED, copies);
+            library.addItem(books[i]);
+        }
+        int threads = 32;
+        int iterations = 2000;
+        AtomicInteger loaned = new AtomicInteger();
+        AtomicInteger doubleReturns = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                Person user = new Person("User", "No" + seed);
+                for (int i = 0; i < iterations; i++) {
+                    Book book = books[(seed + i) % titles];
+                    Loan loan;
+                    try {
+                        loan = library.loanItem(book.getTitle(), user);
+                        loaned.incrementAndGet();
+                    } catch (NoCopyAvailableException e) {
+                        continue;
+                    }
+                    assertTrue(book.getCopies() >= 0);
+                    if (i % 3 == 0) {
+                        library.extendLoan(loan, 1);
+                    }
+                    library.returnItem(loan);
+                    try {
+                        loan.returnItem();
+                    } catch (ItemAlreadyReturnedException e) {
+                        doubleReturns.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (Book book : books) {
+            assertEquals(copies, book.getCopies());
+            assertTrue(library.getLoanLedger().getActiveLoans(book).isEmpty());
+        }
+        assertEquals(loaned.get(), doubleReturns.get());
+        assertEquals(loaned.get(), library.getLoanLedger().size());
+        assertEquals(0, library.getLoanLedger().activeCount());
+    }
+
+    @DisplayName("Search ranks title matches first and follows catalogue changes")
+    @Test
+    public void testSearch() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book cleanCode = new Book("Clean Code", new Person("Robert", "Martin"), "9780132350884", 2008, Book.Genre.NONFICTION, 1);
+        Book cleanArchitecture = new Book("Clean Architecture", new Person("Robert", "Martin"), "9780134494166", 2017, Book.Genre.NONFICTION, 1);
+        Book codeComplete = new Book("Code Complete", new Person("Steve", "McConnell"), "9780735619678", 2004, Book.Genre.NONFICTION, 1);
+        library.addItem(cleanCode);
+        library.addItem(cleanArchitecture);
+        library.addItem(codeComplete);
+
+        assertEquals(List.of(cleanCode, cleanArchitecture, codeComplete), library.search("clean co", 10));
+        assertEquals(List.of(cleanArchitecture, cleanCode), library.search("martin", 10));
+        assertEquals(List.of("code", "complete"), library.suggest("Clean co", 10));
+        assertEquals(List.of(cleanCode), library.search("clean co", 1));
+        assertEquals(List.of(cleanArchitecture, cleanCode), library.search("martin", Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> library.search("martin", 0));
+
+        cleanCode.setTitle("The Pragmatic Programmer");
+        cleanCode.setAuthor(new Person("Andrew", "Hunt"));
+        assertEquals(List.of(cleanArchitecture), library.search("martin", 10));
+        assertEquals(List.of(cleanCode), library.search("prag", 10));
+
+        library.removeItem("Code Complete");
+        assertTrue(library.search("mcconnell", 10).isEmpty());
+    }
+
+    @DisplayName("Library state survives reopening, checkpoints and a torn log tail")
+    @Test
+    public void testPersistence() throws Exception {
+        Path dir = Files.createTempDirectory("library");
+        Book book = createBook();
+        Loan returned;
+        Loan extended;
+        try (LibraryPersistence persistence = LibraryPersistence.open(dir, "Sheffield Central Library", 7, true)) {
+            Library library = persistence.getLibrary();
+            library.addItem(book);
+            library.addItem(createBookAlt());
+            returned = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+            extended = library.loanItem(book.getIsbn(), new Person("Jane Doe"));
+            library.returnItem(returned);
+            library.extendLoan(extended, 3);
+        }
+
+        try (LibraryPersistence persistence = LibraryPersistence.open(dir, "Ignored", 1, true)) {
+            Library library = persistence.getLibrary();
+            assertEquals("Sheffield Central Library", library.getName());
+            assertEquals(2, library.getCatalogue().length);
+            LoanLedger ledger = library.getLoanLedger();
+            assertEquals(2, ledger.size());
+            assertEquals(returned.getReturnedDate(), ledger.getLoan(returned.getId()).getReturnedDate());
+            assertEquals(extended.getDueDate(), ledger.getLoan(extended.getId()).getDueDate());
+            Book restored = (Book) ledger.getLoan(extended.getId()).getItem();
+            assertEquals(book, restored);
+            assertEquals(1, restored.getCopies());
+
+            persistence.checkpoint();
+            library.removeItem(createBookAlt().getIsbn());
+            library.loanItem(book.getIsbn(), new Person("John Doe"));
+        }
+        assertTrue(Files.exists(dir.resolve("snapshot.bin")));
+
+        // Simulates a crash part way through appending the last record
+        Path last = WriteAheadLog.segmentPath(dir, WriteAheadLog.segments(dir).get(WriteAheadLog.segments(dir).size() - 1));
+        Files.write(last, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+        try (LibraryPersistence persistence = LibraryPersistence.open(dir, "Ignored", 1, false)) {
+            Library library = persistence.getLibrary();
+            assertEquals(1, library.getCatalogue().length);
+            assertEquals(3, library.getLoanLedger().size());
+            assertEquals(2, library.getLoanLedger().activeCount());
+            assertEquals(0, library.getCatalogue()[0].getCopies());
+        }
+
+        // A background checkpoint that fails is recorded rather than lost
+        try (LibraryPersistence persistence = LibraryPersistence.open(dir, "Ignored", 1, false)) {
+            Files.write(dir.resolve("snapshot.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            assertNull(persistence.getLastCheckpointFailure());
+            persistence.startCheckpoints(1, TimeUnit.MILLISECONDS);
+            await(() -> persistence.getLastCheckpointFailure() != null, "a failed checkpoint");
+            assertTrue(persistence.getLastCheckpointFailure() instanceof IOException);
+        }
+
+        // A desk removes the item between another desk taking its last free copy and logging the loan
+        Path raced = Files.createTempDirectory("library");
+        try (LibraryPersistence persistence = LibraryPersistence.open(raced, "Sheffield Central Library", 7, true)) {
+            Library library = persistence.getLibrary();
+            CatalogueItem pamphlet = new CatalogueItem("Pamphlet", 2024, 2) {
+                @Override
+                public boolean takeCopy() {
+                    boolean taken = super.takeCopy();
+                    library.removeCopy(this);
+                    return taken;
+                }
+            };
+            library.addItem(pamphlet);
+            Loan loan = library.loanItem("Pamphlet", new Person("Jose Rojas"));
+            assertFalse(library.holds(pamphlet));
+            assertEquals(1, pamphlet.getCopies());
+            assertEquals(1, loan.getId());
+        }
+        try (LibraryPersistence persistence = LibraryPersistence.open(raced, "Ignored", 1, false)) {
+            Library library = persistence.getLibrary();
+            assertEquals(0, library.getCatalogue().length);
+            assertEquals(1, library.getLoanLedger().activeCount());
+            assertEquals(1, library.getLoanLedger().getLoan(1).getItem().getCopies());
+        }
+    }
+
+    @DisplayName("The mapped catalogue stores books in columns that survive reopening")
+    @Test
+    public void testMappedCatalogue() throws Exception {
+        Path dir = Files.createTempDirectory("catalogue");
+        try (MappedCatalogue catalogue = new MappedCatalogue(dir)) {
+            for (int i = 0; i < 3000; i++) {
+                catalogue.add(new Book("Book " + i, new Person("John", "Doe " + (i % 10)), "isbn-" + i, 2000 + i % 20, Book.Genre.NONFICTION, 2));
+            }
+            catalogue.add(new Book("No author", null, "978-0-13-608323-8"));
+            Book view = catalogue.get(1234);
+            assertTrue(view.takeCopy());
+            view.setTitle("Renamed");
+            assertSame(view, catalogue.get(1234));
+            assertSame(view.getAuthor(), catalogue.get(1234).getAuthor());
+        }
+
+        try (MappedCatalogue catalogue = new MappedCatalogue(dir)) {
+            assertEquals(3001, catalogue.size());
+            Book book = catalogue.get(1234);
+            assertEquals("Renamed", book.getTitle());
+            assertEquals(new Person("John", "Doe 4"), book.getAuthor());
+            assertEquals("isbn-1234", book.getIsbn());
+            assertEquals(2014, book.getYear());
+            assertEquals(Book.Genre.NONFICTION, book.getGenre());
+            assertEquals(1, book.getCopies());
+            Book last = catalogue.get(3000);
+            assertNull(last.getAuthor());
+            assertNull(last.getGenre());
+            assertEquals("978-0-13-608323-8", last.getIsbn());
+            assertThrows(IndexOutOfBoundsException.class, () -> catalogue.get(3001));
+
+            // The views can be the catalogue of a library, which loans straight from the columns
+            Library library = new Library("Sheffield Central Library");
+            assertEquals(3001, library.addItems(catalogue.views()));
+            Loan loan = library.loanItem("Renamed", new Person("Jose Rojas"));
+            assertSame(book, loan.getItem());
+            assertEquals(0, catalogue.get(1234).getCopies());
+            assertEquals(1, library.copiesOnLoan(catalogue.get(1234)));
+            assertEquals(300, library.getBooksBy(new Person("John", "Doe 4")).size());
+            library.returnItem(loan);
+            assertEquals(1, catalogue.get(1234).getCopies());
+        }
+    }
+
+    @DisplayName("ISBNs are normalised and duplicate or invalid ISBNs still find their items")
+    @Test
+    public void testIsbnIndex() throws Exception {
+        assertEquals(9780132350884L, Isbn.parse("0-13-235088-2"));
+        assertEquals(Isbn.of("978-0-13-235088-4"), Isbn.of("0132350882"));
+        assertEquals("9780804429573", Isbn.of("080442957X").toString());
+        assertFalse(Isbn.isValid("9780132350885"));
+        assertFalse(Isbn.isValid("978XXXXXXXXXX"));
+
+        Library library = new Library("Sheffield Central Library");
+        Book first = new Book("Clean Code", new Person("Robert", "Martin"), "9780132350884", 2008, Book.Genre.NONFICTION, 1);
+        Book second = new Book("Clean Code (2nd copy)", new Person("Robert", "Martin"), "0-13-235088-2", 2008, Book.Genre.NONFICTION, 1);
+        Book invalid = new Book("Odd ISBN", new Person("John", "Doe"), "isbn-42", 2000, Book.Genre.NONFICTION, 1);
+        library.addItem(first);
+        library.addItem(second);
+        library.addItem(invalid);
+
+        assertSame(first, library.loanItem("0132350882", new Person("Jose Rojas")).getItem());
+        assertSame(invalid, library.loanItem("isbn-42", new Person("Jose Rojas")).getItem());
+        library.removeItem("Clean Code");
+        assertSame(second, library.loanItem("978-0-13-235088-4", new Person("Jose Rojas")).getItem());
+    }
+
+    @DisplayName("Batch loans and returns report each entry instead of throwing")
+    @Test
+    public void testBatchLoansAndReturns() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        library.addItem(book);
+        Person jose = new Person("Jose Rojas");
+        Person jane = new Person("Jane Doe");
+
+        List<CirculationResult> loaned = library.loanItems(List.of(
+                new LoanRequest(book.getTitle(), jose),
+                new LoanRequest("Missing", jose),
+                new LoanRequest(book.getIsbn(), jane),
+                new LoanRequest(book.getTitle(), jane)));
+        assertEquals(CirculationResult.Status.LOANED, loaned.get(0).getStatus());
+        assertEquals(CirculationResult.Status.NOT_FOUND, loaned.get(1).getStatus());
+        assertEquals(CirculationResult.Status.LOANED, loaned.get(2).getStatus());
+        assertEquals(CirculationResult.Status.NO_COPY_AVAILABLE, loaned.get(3).getStatus());
+        assertSame(jane, loaned.get(2).getLoan().getUser());
+        assertEquals(0, book.getCopies());
+        assertEquals(2, library.getLoanLedger().activeCount());
+
+        Loan first = loaned.get(0).getLoan();
+        List<CirculationResult> returned = library.returnItems(List.of(first, loaned.get(2).getLoan(), first));
+        assertTrue(returned.get(0).isSuccess());
+        assertTrue(returned.get(1).isSuccess());
+        assertEquals(CirculationResult.Status.ALREADY_RETURNED, returned.get(2).getStatus());
+        assertEquals(2, book.getCopies());
+        assertEquals(0, library.getLoanLedger().activeCount());
+    }
+
+    @DisplayName("The catalogue is listed in title order page by page and follows renames")
+    @Test
+    public void testListCatalogue() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book c = new Book("C", new Person("John", "Doe"), "isbn-c", 2000, Book.Genre.UNSPECIFIED, 1);
+        Book a = new Book("A", new Person("John", "Doe"), "isbn-a", 2000, Book.Genre.UNSPECIFIED, 1);
+        Book b = new Book("B", new Person("John", "Doe"), "isbn-b", 2000, Book.Genre.UNSPECIFIED, 1);
+        Book d = new Book("D", new Person("John", "Doe"), "isbn-d", 2000, Book.Genre.UNSPECIFIED, 1);
+        library.addItem(c);
+        library.addItem(a);
+        library.addItem(b);
+        library.addItem(d);
+        CatalogueItem[] stored = library.getCatalogue().clone();
+
+        assertEquals(List.of(a, b), library.listCatalogue(null, 2));
+        assertEquals(List.of(c, d), library.listCatalogue(b, 2));
+
+        a.setTitle("E");
+        library.removeItem("isbn-c");
+        assertEquals(List.of(b, d, a), library.listCatalogue(null, 10));
+        assertEquals(List.of(d, a), library.listCatalogue(c, 10));
+        assertEquals(List.of(c, a, b, d), List.of(stored));
+    }
+
+    @DisplayName("Reports are written as text, CSV or JSON to any output")
+    @Test
+    public void testReportWriter() throws Exception {
+        Library library = new Library("Sheffield Central Library", -1);
+        Book book = new Book("Code, \"Clean\"", new Person("Robert", "Martin"), "9780132350884", 2008, Book.Genre.NONFICTION, 2);
+        library.addItem(book);
+        Loan loan = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        String n = System.lineSeparator();
+
+        StringBuilder csv = new StringBuilder();
+        new ReportWriter(csv, ReportWriter.Format.CSV).writeCatalogue(library);
+        assertEquals("type,title,author,isbn,year,genre,copies" + n
+                + "Book,\"Code, \"\"Clean\"\"\",Robert Martin,9780132350884,2008,NONFICTION,1" + n, csv.toString());
+
+        java.io.StringWriter json = new java.io.StringWriter();
+        new ReportWriter(json, ReportWriter.Format.JSON).writeOverdue(library, java.time.LocalDateTime.now());
+        assertTrue(json.toString().startsWith("[" + n + "{\"id\":" + loan.getId() + ",\"user\":\"Jose Rojas\",\"title\":\"Code, \\\"Clean\\\"\""));
+        assertTrue(json.toString().endsWith("\"returned_date\":null}" + n + "]" + n));
+
+        StringBuilder text = new StringBuilder();
+        new ReportWriter(text, ReportWriter.Format.TEXT).writeOverdue(library, java.time.LocalDateTime.now());
+        assertEquals("====================" + n + "Loans Overdue" + n + "====================" + n
+                + loan + n + "====================" + n, text.toString());
+
+        StringBuilder error = new StringBuilder();
+        new ReportWriter(error, ReportWriter.Format.JSON).writeError("Bad \"limit\"\n");
+        assertEquals("{\"error\":\"Bad \\\"limit\\\"\\u000a\"}" + n, error.toString());
+    }
+
+    @DisplayName("Metrics time library operations and count the exceptions they throw")
+    @Test
+    public void testMetrics() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 * 0.04);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 * 0.04);
+
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBookAlt();
+        library.addItem(book);
+        Metrics metrics = new Metrics();
+        library.enableMetrics(metrics);
+        Loan loan = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        assertThrows(NoCopyAvailableException.class, () -> library.loanItem(book.getIsbn(), new Person("Jane Doe")));
+        assertThrows(ItemNotFoundException.class, () -> library.loanItem("Missing", new Person("Jane Doe")));
+        library.returnItem(loan);
+        assertThrows(ItemAlreadyReturnedException.class, () -> library.returnItem(loan));
+        List<CirculationResult> batch = library.loanItems(List.of(
+                new LoanRequest(book.getIsbn(), new Person("Jane Doe")),
+                new LoanRequest(book.getIsbn(), new Person("John Doe")),
+                new LoanRequest("Missing", new Person("John Doe"))));
+        library.returnItems(List.of(batch.get(0).getLoan(), loan));
+        library.disableMetrics();
+        library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+
+        assertEquals(1, metrics.histogram("library.loanItem").getCount());
+        assertEquals(5, metrics.histogram("library.findItem").getCount()); // The batch looks up each distinct title once
+        assertEquals(1, metrics.histogram("library.returnItem").getCount());
+        assertEquals(1, metrics.histogram("library.loanItems").getCount());
+        assertEquals(1, metrics.histogram("library.returnItems").getCount());
+        assertEquals(Long.valueOf(1), metrics.getCounters().get("library.batchLoans"));
+        assertEquals(Long.valueOf(1), metrics.getCounters().get("library.batchReturns"));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("library.noCopyAvailable"));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("library.itemNotFound"));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("library.itemAlreadyReturned"));
+
+        ObjectName name = new ObjectName("uk.ac.sheffield.com1003.library:type=Metrics,name=testMetrics");
+        metrics.registerMBean(name.toString());
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "library.loanItem.count"));
+            ReflectionException e = assertThrows(ReflectionException.class,
+                    () -> server.invoke(name, "reset", new Object[0], new String[0]));
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @DisplayName("Subscribers receive circulation events in batches and slow ones drop instead of blocking")
+    @Test
+    public void testEventStream() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        EventStream stream = new EventStream(8);
+        library.addListener(stream);
+        List<CirculationEvent> received = java.util.Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger dropped = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        EventStream.Subscription subscription = stream.subscribe(new EventSubscriber() {
+            @Override
+            public void onEvents(List<CirculationEvent> events) {
+                received.addAll(events);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onDropped(long count) {
+                dropped.addAndGet((int) count);
+            }
+        }, 4);
+
+        Book book = createBook();
+        library.addItem(book);
+        Loan loan = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        library.extendLoan(loan, 2);
+        await(() -> !received.isEmpty(), "the first batch");
+        // The subscriber is stuck on its first batch while the desk carries on
+        for (int i = 0; i < 20; i++) {
+            library.returnItem(library.loanItem(book.getIsbn(), new Person("Jane Doe")));
+        }
+        release.countDown();
+        await(() -> received.size() + dropped.get() >= stream.getPublished(), "every event to be received or dropped");
+        subscription.close();
+
+        assertEquals(CirculationEvent.Type.ITEM_ADDED, received.get(0).getType());
+        assertSame(book, received.get(0).getItem());
+        assertTrue(dropped.get() > 0);
+        assertEquals(43, stream.getPublished());
+        CirculationEvent last = received.get(received.size() - 1);
+        assertEquals(CirculationEvent.Type.RETURNED, last.getType());
+        assertEquals(42, last.getSequence());
+    }
+
+    @DisplayName("The HTTP server searches, loans, extends and returns items")
+    @Test
+    public void testLibraryServer() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        library.addItem(book);
+        LibraryServer server = new LibraryServer(library, new InetSocketAddress("localhost", 0));
+        server.start();
+        try {
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://localhost:" + server.getPort();
+
+            HttpResponse<String> search = send(client, "GET", base + "/search?q=" + book.getTitle().replace(" ", "%20"));
+            assertEquals(200, search.statusCode());
+            assertTrue(search.body().contains(book.getIsbn()));
+            assertEquals(200, send(client, "GET", base + "/search?q=a&limit=1500000000").statusCode());
+            HttpResponse<String> invalid = send(client, "GET", base + "/search?q=a&limit=-1");
+            assertEquals(400, invalid.statusCode());
+            assertEquals("{\"error\":\"Parameter limit must be a positive number\"}", invalid.body().trim());
+            assertEquals(400, send(client, "GET", base + "/search?q=a&limit=ten").statusCode());
+            assertEquals(400, send(client, "GET", base + "/search?q=a&limit=99999999999").statusCode());
+
+            HttpResponse<String> loaned = send(client, "POST", base + "/loans?item=" + book.getIsbn() + "&user=Jose%20Rojas");
+            assertEquals(201, loaned.statusCode());
+            Loan loan = library.getLoanLedger().getLoans(new Person("Jose", "Rojas")).get(0);
+            assertTrue(loaned.body().startsWith("{\"id\":" + loan.getId() + ","));
+            assertTrue(loaned.body().contains("\"returned_date\":null"));
+            assertEquals(201, send(client, "POST", base + "/loans?item=" + book.getIsbn() + "&user=Jane%20Doe").statusCode());
+            assertEquals(409, send(client, "POST", base + "/loans?item=" + book.getIsbn() + "&user=Jane%20Doe").statusCode());
+            assertEquals(404, send(client, "POST", base + "/loans?item=Missing&user=Jane%20Doe").statusCode());
+
+            String path = base + "/loans/" + loan.getId();
+            assertEquals(200, send(client, "POST", path + "/extend?days=3").statusCode());
+            assertEquals(200, send(client, "POST", path + "/return").statusCode());
+            assertNotNull(loan.getReturnedDate());
+            assertEquals(409, send(client, "POST", path + "/return").statusCode());
+            assertEquals(404, send(client, "GET", base + "/loans/999").statusCode());
+            assertEquals(400, send(client, "POST", base + "/loans/x/return").statusCode());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static HttpResponse<String> send(HttpClient client, String method, String uri) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri)).method(method, HttpRequest.BodyPublishers.noBody()).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @DisplayName("A network of branches finds available copies and transfers them")
+    @Test
+    public void testLibraryNetwork() throws Exception {
+        LibraryNetwork network = new LibraryNetwork();
+        Library central = new Library("Central");
+        Library western = new Library("Western");
+        Book book = createBook();
+        central.addItem(book);
+        network.addBranch(central);
+        network.addBranch(western);
+        assertThrows(IllegalArgumentException.class, () -> network.addBranch(new Library("Central")));
+
+        // Either form of the ISBN finds the holdings
+        assertEquals(2, network.copiesAvailable("0-13-608323-4"));
+        assertEquals(Map.of("Central", 2), network.availability(book.getIsbn()));
+        assertSame(central, network.findAvailable(book.getIsbn(), western));
+
+        assertSame(central, network.requestTransfer(book.getIsbn(), western));
+        assertEquals(1, book.getCopies());
+        CatalogueItem arrived = western.getCatalogue()[0];
+        assertEquals(book, arrived);
+        assertEquals(1, arrived.getCopies());
+        assertSame(western, network.findAvailable(book.getIsbn(), western));
+
+        // Copies on loan stay with the branch that lent them
+        western.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        assertEquals(1, network.transfer(book.getIsbn(), central, western, 5));
+        assertEquals(0, network.transfer(book.getIsbn(), central, western, 1));
+        assertEquals(1, arrived.getCopies());
+        assertEquals(1, network.copiesAvailable(book.getIsbn()));
+        assertNull(network.requestTransfer(book.getIsbn(), western));
+
+        western.removeItem(book.getIsbn());
+        assertEquals(Map.of("Central", 0), network.availability(book.getIsbn()));
+    }
+
+
+    @DisplayName("Returned copies go to the next hold by priority and expire if not collected")
+    @Test
+    public void testHoldQueues() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        library.addItem(book);
+        List<Hold> notified = new ArrayList<>();
+        java.util.concurrent.atomic.AtomicReference<java.time.Instant> now =
+                new java.util.concurrent.atomic.AtomicReference<>(java.time.Instant.parse("2024-03-05T10:15:00Z"));
+        java.time.Clock clock = new java.time.Clock() {
+            @Override
+            public java.time.ZoneId getZone() {
+                return java.time.ZoneOffset.UTC;
+            }
+
+            @Override
+            public java.time.Clock withZone(java.time.ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public java.time.Instant instant() {
+                return now.get();
+            }
+        };
+        // A walk-in loan attempted as a copy comes back, before the holds have been served
+        List<Class<?>> walkIns = new ArrayList<>();
+        library.addListener(new CirculationListener() {
+            @Override
+            public void returned(Loan loan) {
+                walkIns.add(assertThrows(NoCopyAvailableException.class,
+                        () -> library.loanItem(book.getIsbn(), new Person("Eve Early"))).getClass());
+            }
+        });
+        HoldQueues holds = new HoldQueues(library, 2, notified::add, clock);
+        assertThrows(IllegalStateException.class, () -> new HoldQueues(library, 2, notified::add, clock));
+        Loan first = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        Loan second = library.loanItem(book.getIsbn(), new Person("Jane Doe"));
+
+        Hold a = holds.placeHold(book.getIsbn(), new Person("Ann Able"));
+        Hold b = holds.placeHold(book.getIsbn(), new Person("Bob Baker"));
+        Hold c = holds.placeHold(book.getIsbn(), new Person("Cat Cole"), 5);
+        assertEquals(List.of(c, a, b), holds.getQueue(book));
+        assertThrows(HoldNotReadyException.class, () -> holds.collect(a));
+
+        library.returnItem(first);
+        assertEquals(1, walkIns.size());
+        assertEquals(List.of(c), notified);
+        assertEquals(Hold.State.READY, c.getState());
+        assertEquals(0, book.getCopies());
+        assertThrows(NoCopyAvailableException.class, () -> library.loanItem(book.getIsbn(), new Person("Dan Dare")));
+        Loan loan = holds.collect(c);
+        assertSame(loan, c.getLoan());
+        assertEquals(Hold.State.COLLECTED, c.getState());
+        assertEquals(List.of(loan), library.getLoanLedger().getLoans(new Person("Cat Cole")));
+
+        assertTrue(holds.cancel(b));
+        assertFalse(holds.cancel(b));
+        library.returnItem(second);
+        assertEquals(Hold.State.READY, a.getState());
+        assertEquals(0, holds.queueLength(book));
+
+        assertEquals(0, holds.expire());
+        now.set(now.get().plus(java.time.Duration.ofDays(3)));
+        assertEquals(1, holds.expire());
+        assertEquals(Hold.State.EXPIRED, a.getState());
+        assertEquals(1, book.getCopies());
+        // Nobody is waiting any more, so the desk lends again, singly or in batches
+        assertEquals(CirculationResult.Status.LOANED,
+                library.loanItems(List.of(new LoanRequest(book.getIsbn(), new Person("Dan Dare")))).get(0).getStatus());
+    }
+
+    @DisplayName("Books with the same match key are equal, hash alike and are merged on import")
+    @Test
+    public void testBookDeduplication() throws Exception {
+        Book book = new Book("The  Hobbit!", new Person("J. R. R.", "Tolkien"), "9780261103344", 1937);
+        Book same = new Book("the hobbit", new Person("J", "TOLKIEN"), "9780007458424", 2012);
+        Book other = new Book("The Hobbit: An Unexpected Journey", new Person("J", "Tolkien"));
+        assertEquals(book, same);
+        assertEquals(book.hashCode(), same.hashCode());
+        assertNotEquals(book, other);
+        assertNotEquals(book, new CatalogueItem("The Hobbit"));
+        assertFalse(book.equals(null));
+
+        // The cached key follows changes to the author
+        same.getAuthor().setLastName("Lewis");
+        assertNotEquals(book, same);
+        same.setAuthor(new Person("J.", "Tolkien"));
+        assertEquals(book, same);
+
+        Library library = new Library("Sheffield Central Library");
+        String bib = "@book{a, title = {The Hobbit}, author = {J. R. R. Tolkien}, isbn = {9780261103344}, year = {1937}}\n"
+                + "@book{b, title = {The hobbit}, author = {Tolkien, J. R. R.}, isbn = {9780007458424}, year = {2012}}\n"
+                + "@book{c, title = {The Silmarillion}, author = {J. R. R. Tolkien}, isbn = {9780261102736}, year = {1977}}\n";
+        new BibtexImporter(library, 8, error -> { }, true).importFrom(new java.io.StringReader(bib));
+        assertEquals(2, library.getCatalogue().length);
+        CatalogueItem hobbit = library.getCatalogue()[0];
+        assertEquals(2, hobbit.getCopies());
+
+        library.mergeItems(List.of(same));
+        assertEquals(2, library.getCatalogue().length);
+        assertEquals(2 + same.getCopies(), hobbit.getCopies());
+        library.removeCopyOf(book);
+        assertEquals(1 + same.getCopies(), hobbit.getCopies());
+        assertThrows(ItemNotFoundException.class, () -> library.removeCopyOf(other));
+    }
+
+    @DisplayName("Near-duplicate books in the same block are suggested for merging")
+    @Test
+    public void testDuplicateFinder() {
+        Book clean = new Book("Clean Code", new Person("Robert C.", "Martin"), "9780132350884", 2008);
+        Book handbook = new Book("Clean Code: A Handbook of Agile Software Craftsmanship", new Person("Robert", "Martin"));
+        Book initial = new Book("Clean code", new Person("R.", "Martin"));
+        Book other = new Book("The Clean Coder", new Person("Robert", "Martin"));
+        Book reissue = new Book("Clean code", new Person("Bob", "Smith"), "0132350882", 2009);
+        List<CatalogueItem> items = new ArrayList<>(List.of(clean, new CatalogueItem("Clean Code"), handbook, initial, other, reissue));
+
+        List<MergeSuggestion> suggestions = new DuplicateFinder(new java.util.concurrent.ForkJoinPool(2), 0.8).find(items);
+        // The reissue by ISBN whoever the author, every pair of the three editions once, and nothing else
+        assertEquals(4, suggestions.size());
+        assertSame(clean, suggestions.get(0).getKeep());
+        assertSame(reissue, suggestions.get(0).getDuplicate());
+        assertEquals(1.0, suggestions.get(0).getScore());
+        assertSame(clean, suggestions.get(1).getKeep());
+        assertSame(initial, suggestions.get(1).getDuplicate());
+        assertSame(clean, suggestions.get(2).getKeep());
+        assertSame(handbook, suggestions.get(2).getDuplicate());
+        assertSame(handbook, suggestions.get(3).getKeep());
+        assertSame(initial, suggestions.get(3).getDuplicate());
+        assertTrue(suggestions.get(1).getScore() > suggestions.get(2).getScore());
+
+        // Titles starting with different words still share a block
+        Book reordered = new Book("Handbook of Clean Code", new Person("Robert", "Martin"));
+        suggestions = new DuplicateFinder().find(List.of(clean, reordered));
+        assertEquals(1, suggestions.size());
+        assertSame(reordered, suggestions.get(0).getDuplicate());
+        assertEquals(1.0, DuplicateFinder.score(clean, reissue));
+        assertEquals(0.0, DuplicateFinder.score(clean, new Book("Clean Code", new Person("Robert", "Cecil"))));
+    }
+
+    @DisplayName("Restored people are shared per library and books and loans are indexed by name")
+    @Test
+    public void testPersonRegistry() throws Exception {
+        PersonRegistry registry = new PersonRegistry();
+        Person ursula = registry.intern(" Ursula K.", "Le  Guin ");
+        assertEquals(new Person("Ursula K.", "Le Guin"), ursula);
+        assertSame(ursula, registry.intern("Ursula K.", "Le Guin"));
+        assertSame(ursula, registry.intern(PersonName.of(new Person("Ursula  K.", "Le Guin"))));
+        assertEquals(PersonName.of("Ursula K.", "Le Guin"), PersonName.of(new Person("Ursula K. ", " Le Guin")));
+        Person renamed = registry.intern("Ged", "Sparrowhawk");
+        renamed.setFirstName("Duny");
+        assertNotSame(renamed, registry.intern("Ged", "Sparrowhawk"));
+
+        Library library = new Library("Sheffield Central Library");
+        Person author = new Person("Ursula K.", "Le Guin");
+        Book first = new Book("A Wizard of Earthsea", author, "9780547773742", 1968);
+        Book second = Book.fromBibtex("@book{b, title = {The Dispossessed}, author = {Le Guin, Ursula K.}, isbn = {9780060512750}, year = {1974}}");
+        first.addCopy();
+        library.addItems(List.of(first, second, createBook()));
+        assertSame(author, first.getAuthor());
+        assertEquals(first.getAuthor(), second.getAuthor());
+        assertEquals(List.of(first, second), library.getBooksBy(new Person("Ursula K.", "Le Guin")));
+        assertNotSame(registry.intern("Ursula K.", "Le Guin"), library.getPeople().intern("Ursula K.", "Le Guin"));
+
+        Person jose = new Person("Jose", "Rojas");
+        Loan loan = library.loanItem(first.getIsbn(), jose);
+        assertSame(jose, loan.getUser());
+        Loan other = new Loan(second, new Person("Jose", "Rojas"), 10);
+        assertNotSame(loan.getUser(), other.getUser());
+        assertEquals(loan.getUser(), other.getUser());
+
+        second.setAuthor(new Person("Jose", "Rojas"));
+        assertEquals(List.of(first), library.getBooksBy(new Person("Ursula K.", "Le Guin")));
+        assertEquals(List.of(second), library.getBooksBy(loan.getUser()));
+
+        // Renaming a person does not touch the books and loans indexed under their old name
+        author.setLastName("Kroeber");
+        assertEquals(List.of(first), library.getBooksBy(new Person("Ursula K.", "Le Guin")));
+        library.removeItem(first.getIsbn());
+        assertTrue(library.getBooksBy(new Person("Ursula K.", "Le Guin")).isEmpty());
+        jose.setFirstName("José");
+        assertEquals(List.of(loan), library.getLoanLedger().getLoans(new Person("Jose", "Rojas")));
+        assertTrue(library.getLoanLedger().getLoans(jose).isEmpty());
+
+        // People nothing refers to any more can be collected
+        for (int i = 0; i < 1000; i++) {
+            registry.intern("Patron", "Number" + i);
+        }
+        for (int i = 0; i < 50 && registry.size() > 900; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(registry.size() < 900);
+    }
+
+    @DisplayName("Copies on the shelf and on loan stay in step and are published as snapshots")
+    @Test
+    public void testAvailabilitySnapshot() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        Book alt = createBookAlt();
+        library.addItems(List.of(book, alt));
+        AvailabilityPublisher publisher = new AvailabilityPublisher(library);
+        AvailabilitySnapshot before = publisher.getSnapshot();
+
+        Loan loan = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        List<CirculationResult> batch = library.loanItems(List.of(new LoanRequest(book.getIsbn(), new Person("Jane Doe"))));
+        assertEquals(0, library.copiesAvailable(book));
+        assertEquals(2, library.copiesOnLoan(book));
+        library.returnItem(loan);
+        library.returnItems(List.of(loan, batch.get(0).getLoan()));
+        assertEquals(2, library.copiesAvailable(book));
+        assertEquals(0, library.copiesOnLoan(book));
+        library.loanItem(alt.getIsbn(), new Person("Jose Rojas"));
+
+        // Readers keep the snapshot they hold until a new one is published
+        assertSame(before, publisher.getSnapshot());
+        assertEquals(2, before.getCopies(book));
+        assertEquals(2, before.availableCount());
+        AvailabilitySnapshot after = publisher.publish();
+        assertSame(after, publisher.getSnapshot());
+        assertEquals(2, after.getCopies(book));
+        assertEquals(0, after.getCopies(alt));
+        assertEquals(1, after.getCopiesOnLoan(alt));
+        assertFalse(after.isAvailable(alt));
+        assertEquals(1, after.availableCount());
+        assertEquals(0, after.getCopies(new Book("Missing")));
+
+        library.removeItem(book.getIsbn());
+        assertEquals(1, library.copiesAvailable(book));
+        publisher.start(1, TimeUnit.MILLISECONDS);
+        try {
+            await(() -> publisher.getSnapshot().getCopies(book) == 1, "a snapshot after the removal");
+        } finally {
+            publisher.stop();
+        }
+    }
+
+    @DisplayName("Loan analytics count loans per period and genre and rank the most borrowed items")
+    @Test
+    public void testLoanAnalytics() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        Book book = createBook();
+        Book alt = createBookAlt();
+        library.addItems(List.of(book, alt));
+        java.time.Clock clock = java.time.Clock.fixed(java.time.Instant.parse("2024-03-05T10:15:00Z"), java.time.ZoneOffset.UTC);
+        LoanAnalytics analytics = new LoanAnalytics(library, 1, clock);
+
+        Loan first = library.loanItem(book.getIsbn(), new Person("Jose Rojas"));
+        library.loanItem(book.getIsbn(), new Person("Jane Doe"));
+        library.loanItem(alt.getIsbn(), new Person("Jose Rojas"));
+        library.returnItem(first);
+        library.loanItem(book.getIsbn(), new Person("Jane Doe"));
+
+        assertArrayEquals(new long[]{0, 4}, analytics.loansPerHour(2));
+        assertArrayEquals(new long[]{4}, analytics.loansPerDay(1));
+        assertArrayEquals(new long[]{1}, analytics.returnsPerHour(1));
+        assertEquals(3, analytics.genreLoans(Book.Genre.NONFICTION, 24));
+        assertEquals(1, analytics.genreLoans(Book.Genre.UNSPECIFIED, 24));
+        assertEquals(0, analytics.genreLoans(null, 24));
+        assertEquals(3, analytics.estimateLoans(book, LoanAnalytics.DAYS));
+        List<LoanAnalytics.Ranked> top = analytics.topItems(1);
+        assertEquals(1, top.size());
+        assertSame(book, top.get(0).getItem());
+        assertEquals(3, top.get(0).getLoans());
+
+        // Only a few times more candidates than are ranked are kept, dropping the least borrowed
+        Person patron = new Person("Jose", "Rojas");
+        for (int i = 1; i <= 6; i++) {
+            library.addItem(new CatalogueItem("Pamphlet " + i, 2024, 10));
+            for (int j = 0; j < i; j++) {
+                library.loanItem("Pamphlet " + i, patron);
+            }
+        }
+        top = analytics.topItems(10);
+        assertEquals(4, top.size());
+        assertEquals("Pamphlet 6", top.get(0).getItem().getTitle());
+        assertEquals(6, top.get(0).getLoans());
+        assertEquals("Pamphlet 3", top.get(3).getItem().getTitle());
 
+        // Counts move on to new periods and drop periods no longer kept
+        RollingCounter counter = new RollingCounter(1000, 3);
+        counter.increment(500);
+        counter.increment(1500);
+        counter.increment(1700);
+        assertArrayEquals(new long[]{1, 2}, counter.recent(2, 1999));
+        counter.increment(3100);
+        counter.increment(500);
+        assertEquals(0, counter.get(500));
+        assertEquals(3, counter.total(3, 3100));
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        for (long key = 0; key < 1000; key++) {
+            sketch.add(key, key == 7 ? 100 : 1);
+        }
+        assertTrue(sketch.estimate(7) >= 100);
+        sketch.clear();
+        assertEquals(0, sketch.estimate(7));
+    }
 }
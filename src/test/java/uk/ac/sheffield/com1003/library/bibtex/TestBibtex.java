@@ -0,0 +1,152 @@
+package uk.ac.sheffield.com1003.library.bibtex;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import uk.ac.sheffield.com1003.library.Library;
+import uk.ac.sheffield.com1003.library.Person;
+import uk.ac.sheffield.com1003.library.catalogue.Book;
+
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBibtex {
+
+    private static final String ENTRIES = "% Vendor dump\n"
+            + "@comment{ignored {nested} }\n"
+            + "@book{Lee60,\n"
+            + "    title  = {To Kill a {Mockingbird}},\n"
+            + "    author = {Harper Lee},\n"
+            + "    isbn   = {9780099549482},\n"
+            + "    year   = 1960\n"
+            + "}\n"
+            + "@book{Broken, title = {No closing brace, author = {Jane Doe}\n"
+            + "@BOOK(Mar08, TITLE = \"Clean \" # {Code}, author = \"Martin, Robert C.\", isbn = {9780132350884}, year = {2008},)\n";
+
+    @DisplayName("Entries are read one at a time, with nested braces, quotes and concatenation")
+    @Test
+    public void testReadEntries() throws Exception {
+        BibtexReader reader = new BibtexReader(new StringReader(ENTRIES));
+
+        BibtexEntry lee = reader.next();
+        assertEquals("book", lee.getType());
+        assertEquals("Lee60", lee.getKey());
+        assertEquals("To Kill a {Mockingbird}", lee.getField("title"));
+        assertEquals("1960", lee.getField("YEAR"));
+        assertEquals(3, lee.getLine());
+
+        assertThrows(ParseException.class, reader::next);
+
+        BibtexEntry martin = reader.next();
+        assertEquals("Mar08", martin.getKey());
+        assertEquals("Clean Code", martin.getField("title"));
+        assertNull(reader.next());
+    }
+
+    @DisplayName("A book can be created from a single BibTeX entry")
+    @Test
+    public void testFromBibtex() throws Exception {
+        Book book = Book.fromBibtex("@book{Lee60, title = {To Kill a Mockingbird}, author = {Harper Lee}, isbn = {9780099549482}, year = {1960}}");
+        assertEquals("To Kill a Mockingbird", book.getTitle());
+        assertEquals("Lee", book.getAuthor().getLastName());
+        assertEquals(1960, book.getYear());
+        assertThrows(IllegalArgumentException.class, () -> Book.fromBibtex("@book{Lee60, title = {To Kill a Mockingbird}}"));
+        assertThrows(ParseException.class, () -> Book.fromBibtex("@book{Lee60, title = {T}, author = {Lee}, isbn = {1}, year = {1960}}"));
+    }
+
+    @DisplayName("The importer adds every valid entry and counts the failures")
+    @Test
+    public void testImport() throws Exception {
+        Library library = new Library("Sheffield Central Library");
+        ImportReport report = new BibtexImporter(library, 1).importFrom(new StringReader(ENTRIES));
+
+        assertEquals(3, report.getEntriesRead());
+        assertEquals(2, report.getItemsAdded());
+        assertEquals(1, report.getEntriesFailed());
+        assertEquals(2, library.getCatalogue().length);
+        Book martin = (Book) library.getCatalogue()[1];
+        assertEquals("Robert C.", martin.getAuthor().getFirstName());
+        assertEquals(1, martin.getCopies());
+    }
+
+    @DisplayName("The parallel importer splits large files, merges duplicate ISBNs and reports bad entries")
+    @Test
+    public void testParallelImport() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".bib");
+        int entries = 30000;
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < entries; i++) {
+                if (i % 1000 == 999) {
+                    writer.write("@book{Bad" + i + ", title = {Bad entry}, author = {Nobody}, isbn = {1}, year = {2000}}\n");
+                } else {
+                    writer.write("@book{Entry" + i + ",\n  title = {Title " + i % 10000 + "},\n  author = {Jane Doe},\n"
+                            + "  isbn = {" + (9780000000000L + i % 10000) + "},\n  year = {2000}\n}\n");
+                }
+            }
+        }
+        Library library = new Library("Sheffield Central Library");
+        library.addItem(new Book("Title 0", new Person("Jane", "Doe"), "9780000000000", 2000, Book.Genre.UNSPECIFIED, 1));
+        List<ImportError> errors = new ArrayList<>();
+
+        ImportReport report = new ParallelBibtexImporter(library, new ForkJoinPool(4), errors::add).importFile(file);
+        Files.delete(file);
+
+        assertEquals(entries, report.getEntriesRead());
+        assertEquals(30, report.getEntriesFailed());
+        assertEquals(9989, report.getItemsAdded());
+        assertEquals(9990, library.getCatalogue().length);
+        assertEquals(4, library.copiesAvailable(library.getCatalogue()[0]));
+        assertEquals(30, errors.size());
+        assertEquals(999 * 6 + 1, errors.get(0).getLine());
+        assertEquals(1999 * 6 - 4, errors.get(1).getLine());
+    }
+
+    @DisplayName("The parallel importer merges hyphenated and ISBN-10 forms of the same book")
+    @Test
+    public void testParallelImportMergesIsbnForms() throws Exception {
+        Path file = Files.createTempFile("catalogue", ".bib");
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            // Titles differ so that only the ISBN tells the entries are the same book
+            List<String> isbns = List.of("9780136083238", "978-0-13-608323-8", "0-13-608323-4");
+            for (int i = 0; i < isbns.size(); i++) {
+                writer.write("@book{Entry" + i + ", title = {Book 1 Edition " + i + "}, author = {John Doe}, isbn = {" + isbns.get(i) + "}, year = {2010}}\n");
+            }
+        }
+        Library library = new Library("Sheffield Central Library");
+
+        ImportReport report = new ParallelBibtexImporter(library).importFile(file);
+        Files.delete(file);
+
+        assertEquals(0, report.getEntriesFailed());
+        assertEquals(1, library.getCatalogue().length);
+        assertEquals(3, library.copiesAvailable(library.getCatalogue()[0]));
+    }
+
+    @DisplayName("Imported books by the same author share one person from the library's registry")
+    @Test
+    public void testImportSharesAuthors() throws Exception {
+        String entries = "@book{a, title = {Clean Code}, author = {Martin, Robert C.}, isbn = {9780132350884}, year = {2008}}\n"
+                + "@book{b, title = {Clean Architecture}, author = {Robert C. Martin}, isbn = {9780134494166}, year = {2017}}\n";
+        Library library = new Library("Sheffield Central Library");
+        new BibtexImporter(library).importFrom(new StringReader(entries));
+        Book first = (Book) library.getCatalogue()[0];
+        Book second = (Book) library.getCatalogue()[1];
+        assertSame(first.getAuthor(), second.getAuthor());
+        assertSame(first.getAuthor(), library.getPeople().intern("Robert C.", "Martin"));
+
+        Path file = Files.createTempFile("catalogue", ".bib");
+        Files.writeString(file, entries);
+        Library parallel = new Library("Sheffield Central Library");
+        new ParallelBibtexImporter(parallel).importFile(file);
+        Files.delete(file);
+        assertSame(((Book) parallel.getCatalogue()[0]).getAuthor(), ((Book) parallel.getCatalogue()[1]).getAuthor());
+        assertNotSame(first.getAuthor(), ((Book) parallel.getCatalogue()[0]).getAuthor());
+    }
+}